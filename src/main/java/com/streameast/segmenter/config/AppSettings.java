@@ -1,94 +1,339 @@
-package com.streameast.segmenter.config;
-
-import jakarta.validation.Valid;
-import jakarta.validation.constraints.NotNull;
-import lombok.Getter;
-import lombok.Setter;
-import org.springframework.validation.annotation.Validated;
-
-import java.nio.file.Path;
-
-@Validated
-public class AppSettings {
-
-    @Valid
-    @Getter
-    private RequiredServices requiredServices = new RequiredServices();
-
-    @Valid
-    @Getter
-    private RequiredParams requiredParams = new RequiredParams();
-
-    @Valid
-    @Getter
-    private StorageParams storage = new StorageParams();
-
-    @Getter
-    @Setter
-    public static class RequiredServices {
-
-        @NotNull
-        private String ffmpeg;
-
-        @NotNull
-        private String ffprobe;
-    }
-
-    @Getter
-    @Setter
-    public static class RequiredParams {
-
-        @NotNull
-        private Integer segmentDuration;
-
-        @NotNull
-        private String localTempPath;
-
-        @NotNull
-        private Integer readyIfSegmentCount;
-
-        private String serverUrl= "http://localhost:8090";
-
-        @NotNull
-        private Integer maxSegmentsInPlaylist;
-
-    }
-
-    @Getter
-    @Setter
-    public static class StorageParams {
-        private AwsStorage aws = new AwsStorage();
-        private AzureStorage azure = new AzureStorage();
-        private GcpStorage gcp = new GcpStorage();
-
-        @Getter
-        @Setter
-        public static class AwsStorage {
-            private boolean enabled;
-            private String awsAccessKey;
-            private String awsSecretKey;
-            private String awsBucket;
-        }
-
-        @Getter
-        @Setter
-        public static class AzureStorage {
-            private boolean enabled;
-            private String azureConnectionString;
-            private String azureContainer;
-        }
-
-        @Getter
-        @Setter
-        public static class GcpStorage {
-            private boolean enabled;
-            private String gcpProjectId;
-            private String gcpBucket;
-        }
-    }
-
-    public Path resolvePath(String... parts) {
-        return Path.of(requiredParams.localTempPath, parts);
-    }
-
-}
+package com.streameast.segmenter.config;
+
+import com.streameast.segmenter.model.enums.IngestOutputMode;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.validation.annotation.Validated;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+@Validated
+public class AppSettings {
+
+    @Valid
+    @Getter
+    private RequiredServices requiredServices = new RequiredServices();
+
+    @Valid
+    @Getter
+    private RequiredParams requiredParams = new RequiredParams();
+
+    @Valid
+    @Getter
+    private StorageParams storage = new StorageParams();
+
+    @Valid
+    @Getter
+    private SchedulerParams scheduler = new SchedulerParams();
+
+    @Valid
+    @Getter
+    private EncoderParams encoder = new EncoderParams();
+
+    @Valid
+    @Getter
+    private CapacityParams capacity = new CapacityParams();
+
+    @Valid
+    @Getter
+    private RedisParams redis = new RedisParams();
+
+    @Valid
+    @Getter
+    private SegmentCacheParams segmentCache = new SegmentCacheParams();
+
+    @Valid
+    @Getter
+    private RetentionParams retention = new RetentionParams();
+
+    @Valid
+    @Getter
+    private StagingParams staging = new StagingParams();
+
+    @Valid
+    @Getter
+    private DvrParams dvr = new DvrParams();
+
+    @Valid
+    @Getter
+    private IngestParams ingest = new IngestParams();
+
+    @Valid
+    @Getter
+    private UploadParams upload = new UploadParams();
+
+    @Valid
+    @Getter
+    private Scte35Params scte35 = new Scte35Params();
+
+    @Valid
+    @Getter
+    private DemandParams demand = new DemandParams();
+
+    @Valid
+    @Getter
+    private AnalyticsParams analytics = new AnalyticsParams();
+
+    @Getter
+    @Setter
+    public static class RequiredServices {
+
+        @NotNull
+        private String ffmpeg;
+
+        @NotNull
+        private String ffprobe;
+    }
+
+    @Getter
+    @Setter
+    public static class RequiredParams {
+
+        @NotNull
+        private Integer segmentDuration;
+
+        @NotNull
+        private String localTempPath;
+
+        @NotNull
+        private Integer readyIfSegmentCount;
+
+        private String serverUrl= "http://localhost:8090";
+
+        @NotNull
+        private Integer maxSegmentsInPlaylist;
+
+    }
+
+    @Getter
+    @Setter
+    public static class StorageParams {
+        private AwsStorage aws = new AwsStorage();
+        private AzureStorage azure = new AzureStorage();
+        private GcpStorage gcp = new GcpStorage();
+
+        @Getter
+        @Setter
+        public static class AwsStorage {
+            private boolean enabled;
+            private String awsAccessKey;
+            private String awsSecretKey;
+            private String awsBucket;
+        }
+
+        @Getter
+        @Setter
+        public static class AzureStorage {
+            private boolean enabled;
+            private String azureConnectionString;
+            private String azureContainer;
+        }
+
+        @Getter
+        @Setter
+        public static class GcpStorage {
+            private boolean enabled;
+            private String gcpProjectId;
+            private String gcpBucket;
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class SchedulerParams {
+
+        // Scheduled streams are connected, probed and encoding this long before startTime
+        private int preRollLeadSeconds = 30;
+    }
+
+    @Getter
+    @Setter
+    public static class EncoderParams {
+
+        // An encoder reporting speed below this for laggingReportCount consecutive progress blocks is lagging
+        private double laggingSpeedThreshold = 1.0;
+        private int laggingReportCount = 5;
+
+        // Crashed encoders are restarted with exponential backoff, the attempt counter resets after a stable run
+        private int maxRestarts = 10;
+        private long restartBackoffInitialMs = 1000;
+        private long restartBackoffMaxMs = 30000;
+        private int stableRunSeconds = 60;
+
+        // Pin each encoder to its own cores with taskset (Linux only)
+        private boolean cpuPinning = false;
+        private String tasksetPath = "taskset";
+
+        // Render watermarks once into a PNG that is only overlaid, instead of scaling or drawing text per frame
+        private boolean prerenderWatermarks = true;
+    }
+
+    @Getter
+    @Setter
+    public static class CapacityParams {
+
+        private String nodeId = "local";
+
+        // Share of the node's cores that encoders may use, the rest is left for uploads and serving
+        private double targetUtilization = 0.85;
+
+        // Estimated libx264 cost of one 720p stream at 2500 kbps, other qualities are scaled from it
+        private double coresPer720pStream = 1.0;
+
+        // Lagging encoders reject new streams once they are this share of the running ones, or
+        // while the node's cpu load is above targetUtilization
+        private double maxLaggingFraction = 0.25;
+
+        private int advertiseTtlSeconds = 30;
+    }
+
+    @Getter
+    @Setter
+    public static class RedisParams {
+
+        // Format new StreamContext values are written in, both formats are always readable
+        private StreamContextRedisSerializer.Format codec = StreamContextRedisSerializer.Format.SMILE;
+    }
+
+    @Getter
+    @Setter
+    public static class SegmentCacheParams {
+
+        // Newest segments of each stream kept off-heap for the local segment endpoint
+        private int segmentsPerStream = 6;
+        // Budget over all streams, least recently used segments are evicted first
+        private int maxMegabytes = 256;
+    }
+
+    @Getter
+    @Setter
+    public static class RetentionParams {
+
+        // Segments kept on local disk behind the playlist window, for DVR and late retries; at least
+        // maxSegmentsInPlaylist are always kept, 0 keeps just that
+        private int dvrSegments = 0;
+        // Limit for all local segments, 0 disables it; segments outside the playlist window are evicted oldest first
+        private long diskQuotaMegabytes = 0;
+        // Remote copies are batch deleted once this many segments fell behind the DVR depth
+        private int remoteDeleteBatchSegments = 10;
+    }
+
+    @Getter
+    @Setter
+    public static class StagingParams {
+
+        // ffmpeg writes live segments to a memory backed directory, published ones spill to localTempPath
+        private boolean enabled = false;
+        private String path = "/dev/shm/segmenter";
+        private int budgetMegabytes = 512;
+    }
+
+    @Getter
+    @Setter
+    public static class DvrParams {
+
+        // Time viewers can rewind, 0 disables the DVR index and its playlists
+        private int windowMinutes = 0;
+    }
+
+    @Getter
+    @Setter
+    public static class IngestParams {
+
+        private IngestOutputMode outputMode = IngestOutputMode.FILE;
+        // Base URL ffmpeg PUTs segments to in HTTP_PUT mode, must reach this instance over loopback
+        private String endpoint = "http://127.0.0.1:8090";
+
+        // Push ingest: ffmpeg listens on a port of this range, encoders connect to pushHost
+        private String pushHost = "localhost";
+        private int pushPortStart = 20000;
+        private int pushPortEnd = 20099;
+        // A pushed stream is stopped if no segment was published this long after it was created
+        private int pushConnectTimeoutSeconds = 120;
+    }
+
+    @Getter
+    @Setter
+    public static class UploadParams {
+
+        // Stream segments to S3 (multipart) and GCS (resumable) while ffmpeg still writes them,
+        // for streams encoded at streamingMinVideoKbps or more; S3 only streams segments expected
+        // to exceed its 5 MiB part size
+        private boolean streamingEnabled = false;
+        private long streamingMinVideoKbps = 5000;
+    }
+
+    @Getter
+    @Setter
+    public static class Scte35Params {
+
+        // Pulled sources are probed for an SCTE-35 data stream, its splice_insert cues become ad breaks
+        private boolean enabled = false;
+        // Length of a cue-out without a break duration, a cue-in ends the break earlier
+        private int defaultBreakSeconds = 120;
+    }
+
+    @Getter
+    @Setter
+    public static class DemandParams {
+
+        // Pulled streams without playlist requests for this long stop encoding until the next request, 0 disables.
+        // Streams started with idleMinutes use their own period instead
+        private int idleSeconds = 0;
+        // Each node reports a stream's playlist requests to Redis at most this often
+        private int reportIntervalSeconds = 5;
+    }
+
+    @Getter
+    @Setter
+    public static class AnalyticsParams {
+
+        // Viewers are sessions (client address and user agent) seen polling a playlist in a window
+        private boolean enabled = true;
+        private int bucketSeconds = 10;
+        private int concurrentWindowSeconds = 30;
+        private int uniqueWindowMinutes = 60;
+    }
+
+    public int getDvrWindowSegments() {
+        return (int) Math.ceil(dvr.windowMinutes * 60.0 / requiredParams.segmentDuration);
+    }
+
+    // Segments kept locally and remotely behind the live playlist window. Never less than one playlist:
+    // players that fetched the playlist just before it slid still request its oldest segments.
+    public int getRetainedSegmentsBehindWindow() {
+        return Math.max(requiredParams.maxSegmentsInPlaylist, Math.max(retention.dvrSegments, getDvrWindowSegments()));
+    }
+
+    // With staging enabled, stream directories resolve to the staging area where ffmpeg writes,
+    // and a segment file resolves to its staged copy until it was spilled to disk
+    public Path resolvePath(String... parts) {
+        if (isStaged(parts)) {
+            Path staged = Path.of(staging.path, parts);
+            if (parts.length <= 2 || Files.exists(staged)) {
+                return staged;
+            }
+        }
+        return resolvePersistentPath(parts);
+    }
+
+    public Path resolvePersistentPath(String... parts) {
+        return Path.of(requiredParams.localTempPath, parts);
+    }
+
+    // Every location the path may exist in, staging area first
+    public List<Path> resolveAllPaths(String... parts) {
+        return isStaged(parts)
+                ? List.of(Path.of(staging.path, parts), resolvePersistentPath(parts))
+                : List.of(resolvePersistentPath(parts));
+    }
+
+    private boolean isStaged(String... parts) {
+        return staging.enabled && parts.length > 0 && "streams".equals(parts[0]);
+    }
+
+}
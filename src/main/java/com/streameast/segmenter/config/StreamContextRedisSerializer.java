@@ -0,0 +1,94 @@
+package com.streameast.segmenter.config;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.streameast.segmenter.model.StreamContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.Arrays;
+
+public class StreamContextRedisSerializer implements RedisSerializer<StreamContext> {
+
+    public enum Format {
+        JSON,
+        SMILE
+    }
+
+    // Binary values start with MAGIC and a codec version, JSON values always start with '{'.
+    // Fields are only ever added, readers ignore unknown ones; VERSION changes on incompatible layouts only.
+    private static final byte MAGIC = (byte) 0xB5;
+    private static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = 2;
+
+    private final Format format;
+    private final ObjectMapper jsonMapper;
+    private final ObjectMapper smileMapper;
+
+    public StreamContextRedisSerializer(Format format) {
+        this.format = format;
+        this.jsonMapper = createMapper(new JsonFactory());
+        this.smileMapper = createMapper(SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build());
+    }
+
+    @Override
+    public byte[] serialize(StreamContext context) throws SerializationException {
+        if (context == null) {
+            return null;
+        }
+        try {
+            if (format == Format.JSON) {
+                return jsonMapper.writeValueAsBytes(context);
+            }
+
+            byte[] body = smileMapper.writeValueAsBytes(context);
+            byte[] value = new byte[HEADER_LENGTH + body.length];
+            value[0] = MAGIC;
+            value[1] = VERSION;
+            System.arraycopy(body, 0, value, HEADER_LENGTH, body.length);
+            return value;
+        } catch (Exception e) {
+            throw new SerializationException("Could not write StreamContext: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public StreamContext deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        try {
+            if (bytes[0] != MAGIC) {
+                return jsonMapper.readValue(bytes, StreamContext.class);
+            }
+
+            if (bytes.length < HEADER_LENGTH || bytes[1] > VERSION) {
+                throw new SerializationException("Unsupported StreamContext codec version: "
+                        + (bytes.length < HEADER_LENGTH ? "none" : bytes[1]));
+            }
+            return smileMapper.readValue(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, StreamContext.class);
+        } catch (SerializationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SerializationException("Could not read StreamContext: " + e.getMessage()
+                    + " (first bytes " + Arrays.toString(Arrays.copyOf(bytes, Math.min(bytes.length, 4))) + ")", e);
+        }
+    }
+
+    private static ObjectMapper createMapper(JsonFactory factory) {
+        ObjectMapper objectMapper = new ObjectMapper(factory);
+        objectMapper.registerModule(new JavaTimeModule());
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE);
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        return objectMapper;
+    }
+}
@@ -22,9 +22,7 @@ public class WebConfig implements WebMvcConfigurer {
 
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
-        registry.addResourceHandler("/streams/**")
-                .addResourceLocations("file:" + appSettings.getRequiredParams().getLocalTempPath() + "/streams/");
-
+        // Segments under /streams/** are served by SegmentController
         registry.addResourceHandler("/advertisements/**")
                 .addResourceLocations("file:" + appSettings.getRequiredParams().getLocalTempPath() + "/advertisements/");
     }
@@ -1,5 +1,8 @@
 package com.streameast.segmenter.model;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 
 import java.util.ArrayList;
@@ -7,15 +10,37 @@ import java.util.List;
 
 @Data
 public class AdvertisementInfo {
+    // Storage prefix the ad segments are uploaded under, shared by all streams; the stream's own id if null
     private final String path;
     private final int duration;
     private final List<String> segmentNames;
     private final boolean processed;
+    // Shown while the encoder is suspended: spliced like an ad, but not an ad break for downstream cue handling
+    private final boolean slate;
 
     public AdvertisementInfo(String path, int duration, List<String> segmentNames, boolean processed) {
+        this(path, duration, segmentNames, processed, false);
+    }
+
+    @JsonCreator
+    public AdvertisementInfo(@JsonProperty("path") String path, @JsonProperty("duration") int duration,
+                             @JsonProperty("segmentNames") List<String> segmentNames,
+                             @JsonProperty("processed") boolean processed,
+                             @JsonProperty("slate") boolean slate) {
         this.path = path;
         this.duration = Math.min(duration, 300); // Max 5 minutes
-        this.segmentNames = new ArrayList<>(segmentNames);
+        this.segmentNames = segmentNames == null ? new ArrayList<>() : new ArrayList<>(segmentNames);
         this.processed = processed;
+        this.slate = slate;
+    }
+
+    // A break signalled by an SCTE-35 cue: live segments stay in the playlist between cue tags
+    @JsonIgnore
+    public boolean isCueBreak() {
+        return !processed && segmentNames.isEmpty();
+    }
+
+    public int segmentsCovered(int segmentDuration) {
+        return (duration + segmentDuration - 1) / segmentDuration;
     }
 }
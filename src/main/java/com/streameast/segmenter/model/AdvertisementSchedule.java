@@ -0,0 +1,122 @@
+package com.streameast.segmenter.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Advertisements keyed by their start segment, kept in sorted primitive arrays. Streams carry a
+// handful of ads, so a binary search beats hashing and boxing on every playlist render.
+// Serialized as a map keyed by start segment, the same shape the former HashMap had.
+public class AdvertisementSchedule implements Serializable {
+
+    private int[] keys = new int[0];
+    private AdvertisementInfo[] values = new AdvertisementInfo[0];
+
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public static AdvertisementSchedule of(Map<Integer, AdvertisementInfo> advertisements) {
+        AdvertisementSchedule schedule = new AdvertisementSchedule();
+        if (advertisements != null) {
+            advertisements.forEach(schedule::put);
+        }
+        return schedule;
+    }
+
+    public void put(int startSegment, AdvertisementInfo adInfo) {
+        int index = Arrays.binarySearch(keys, startSegment);
+        if (index >= 0) {
+            values[index] = adInfo;
+            return;
+        }
+
+        int position = -index - 1;
+        int[] newKeys = new int[keys.length + 1];
+        AdvertisementInfo[] newValues = new AdvertisementInfo[values.length + 1];
+        System.arraycopy(keys, 0, newKeys, 0, position);
+        System.arraycopy(values, 0, newValues, 0, position);
+        newKeys[position] = startSegment;
+        newValues[position] = adInfo;
+        System.arraycopy(keys, position, newKeys, position + 1, keys.length - position);
+        System.arraycopy(values, position, newValues, position + 1, values.length - position);
+        keys = newKeys;
+        values = newValues;
+    }
+
+    // Drops advertisements that ended before the segment. A spliced ad takes the place of its start
+    // segment only; returns how many more segments than window sequences the dropped ads played.
+    public int removeEndedBefore(int segment, int segmentDuration) {
+        int kept = 0;
+        int hidden = 0;
+        for (int i = 0; i < keys.length; i++) {
+            AdvertisementInfo adInfo = values[i];
+            int end = keys[i] + (adInfo.isCueBreak() ? adInfo.segmentsCovered(segmentDuration) : 1);
+            if (end > segment) {
+                keys[kept] = keys[i];
+                values[kept] = adInfo;
+                kept++;
+            } else if (!adInfo.isCueBreak()) {
+                hidden += Math.max(0, adInfo.getSegmentNames().size() - 1);
+            }
+        }
+        if (kept < keys.length) {
+            keys = Arrays.copyOf(keys, kept);
+            values = Arrays.copyOf(values, kept);
+        }
+        return hidden;
+    }
+
+    public AdvertisementInfo get(int startSegment) {
+        int index = Arrays.binarySearch(keys, startSegment);
+        return index >= 0 ? values[index] : null;
+    }
+
+    // Index of the last advertisement starting at or before the segment, -1 if none
+    public int floorIndex(int segment) {
+        int index = Arrays.binarySearch(keys, segment);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    public int keyAt(int index) {
+        return keys[index];
+    }
+
+    public AdvertisementInfo valueAt(int index) {
+        return values[index];
+    }
+
+    @JsonValue
+    public Map<Integer, AdvertisementInfo> toMap() {
+        Map<Integer, AdvertisementInfo> advertisements = new TreeMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            advertisements.put(keys[i], values[i]);
+        }
+        return advertisements;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof AdvertisementSchedule other
+                && Arrays.equals(keys, other.keys) && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(keys) + Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
@@ -0,0 +1,105 @@
+package com.streameast.segmenter.model;
+
+import java.nio.ByteBuffer;
+
+// Bounded index of the segments in a stream's DVR window, three primitive columns on a ring.
+// A two hour window of 5 s segments is about 17 KB. Stored in Redis as fixed size records
+// (sequence, duration in ms, discontinuity sequence) so new segments are a plain APPEND.
+public class DvrIndex {
+
+    public static final int RECORD_BYTES = 12;
+
+    private final int[] sequences;
+    private final int[] durationsMs;
+    // Discontinuity tags up to and including the boundary before each segment
+    private final int[] discontinuities;
+    private int head;
+    private int size;
+
+    public DvrIndex(int capacity) {
+        int length = Math.max(1, capacity);
+        this.sequences = new int[length];
+        this.durationsMs = new int[length];
+        this.discontinuities = new int[length];
+    }
+
+    // Records that don't fit keep the newest ones, a trailing partial record is ignored
+    public static DvrIndex decode(byte[] data, int capacity) {
+        DvrIndex index = new DvrIndex(capacity);
+        if (data == null) {
+            return index;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int records = data.length / RECORD_BYTES;
+        buffer.position(Math.max(0, records - index.sequences.length) * RECORD_BYTES);
+        while (buffer.remaining() >= RECORD_BYTES) {
+            index.add(buffer.getInt(), buffer.getInt(), buffer.getInt());
+        }
+        return index;
+    }
+
+    public static void encode(ByteBuffer target, int sequence, int durationMs, int discontinuity) {
+        target.putInt(sequence).putInt(durationMs).putInt(discontinuity);
+    }
+
+    public void add(int sequence, int durationMs, int discontinuity) {
+        int slot;
+        if (size == sequences.length) {
+            slot = head;
+            head = (head + 1) % sequences.length;
+        } else {
+            slot = (head + size) % sequences.length;
+            size++;
+        }
+        sequences[slot] = sequence;
+        durationsMs[slot] = durationMs;
+        discontinuities[slot] = discontinuity;
+    }
+
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(size * RECORD_BYTES);
+        for (int i = 0; i < size; i++) {
+            encode(buffer, sequenceAt(i), durationMsAt(i), discontinuityAt(i));
+        }
+        return buffer.array();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return sequences.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int sequenceAt(int index) {
+        return sequences[slot(index)];
+    }
+
+    public int durationMsAt(int index) {
+        return durationsMs[slot(index)];
+    }
+
+    public int discontinuityAt(int index) {
+        return discontinuities[slot(index)];
+    }
+
+    public int lastSequence() {
+        return size == 0 ? -1 : sequenceAt(size - 1);
+    }
+
+    public int lastDiscontinuity() {
+        return size == 0 ? 0 : discontinuityAt(size - 1);
+    }
+
+    private int slot(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return (head + index) % sequences.length;
+    }
+}
@@ -0,0 +1,15 @@
+package com.streameast.segmenter.model;
+
+import lombok.Data;
+
+@Data
+public class FFmpegProgress {
+    private long frame;
+    private double fps;
+    private double bitrateKbps;
+    private long outTimeMs;
+    private double speed;
+    private long dropFrames;
+    private long dupFrames;
+    private long updatedAt;
+}
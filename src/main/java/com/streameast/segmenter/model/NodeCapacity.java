@@ -0,0 +1,19 @@
+package com.streameast.segmenter.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class NodeCapacity {
+    private final String nodeId;
+    private final String serverUrl;
+    private final int totalCores;
+    private final double capacityCores;
+    private final double usedCores;
+    private final double availableCores;
+    private final int streams;
+    private final List<String> laggingStreams;
+}
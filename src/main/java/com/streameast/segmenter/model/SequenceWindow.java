@@ -0,0 +1,158 @@
+package com.streameast.segmenter.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+// Sorted sliding window of segment sequences on a primitive ring buffer. Sequences arrive almost
+// always in increasing order, so adding is an append and sliding is moving the head.
+// Serialized as a plain int array, the same shape the former TreeSet<Integer> had.
+public class SequenceWindow implements Serializable {
+
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private int[] buffer;
+    private int head;
+    private int size;
+
+    public SequenceWindow() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SequenceWindow(int capacity) {
+        this.buffer = new int[Math.max(1, capacity)];
+    }
+
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public static SequenceWindow of(int[] sequences) {
+        SequenceWindow window = new SequenceWindow(sequences == null ? DEFAULT_CAPACITY : sequences.length + 1);
+        if (sequences != null) {
+            for (int sequence : sequences) {
+                window.add(sequence, Integer.MAX_VALUE);
+            }
+        }
+        return window;
+    }
+
+    public void add(int sequence, int maxSize) {
+        if (size == 0 || sequence > last()) {
+            ensureCapacity();
+            buffer[(head + size) % buffer.length] = sequence;
+            size++;
+        } else {
+            insert(sequence);
+        }
+
+        while (size > maxSize) {
+            head = (head + 1) % buffer.length;
+            size--;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return buffer[(head + index) % buffer.length];
+    }
+
+    public int first() {
+        return get(0);
+    }
+
+    public int last() {
+        return get(size - 1);
+    }
+
+    public boolean contains(int sequence) {
+        return indexOf(sequence) >= 0;
+    }
+
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(buffer[(head + i) % buffer.length]);
+        }
+    }
+
+    @JsonValue
+    public int[] toArray() {
+        int[] sequences = new int[size];
+        for (int i = 0; i < size; i++) {
+            sequences[i] = buffer[(head + i) % buffer.length];
+        }
+        return sequences;
+    }
+
+    // Out of order arrival, rare enough that shifting the linearized buffer is fine
+    private void insert(int sequence) {
+        int index = indexOf(sequence);
+        if (index >= 0) {
+            return;
+        }
+        int position = -index - 1;
+
+        ensureCapacity();
+        linearize(buffer.length);
+        System.arraycopy(buffer, position, buffer, position + 1, size - position);
+        buffer[position] = sequence;
+        size++;
+    }
+
+    private int indexOf(int sequence) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = get(mid);
+            if (value < sequence) {
+                low = mid + 1;
+            } else if (value > sequence) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void ensureCapacity() {
+        if (size == buffer.length) {
+            linearize(buffer.length * 2);
+        }
+    }
+
+    private void linearize(int capacity) {
+        int[] linear = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            linear[i] = buffer[(head + i) % buffer.length];
+        }
+        buffer = linear;
+        head = 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof SequenceWindow other && Arrays.equals(toArray(), other.toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,61 @@
+package com.streameast.segmenter.model;
+
+import java.nio.ByteBuffer;
+
+// The parts of an SCTE-35 splice_insert command ad breaks are built from. Other splice commands
+// and encrypted sections decode to null.
+public record SpliceInsert(long eventId, boolean cancelled, boolean outOfNetwork, int breakDurationSeconds) {
+
+    public static final int TABLE_ID = 0xFC;
+    private static final int SPLICE_INSERT = 0x05;
+    private static final int COMMAND_OFFSET = 14;
+    private static final double PTS_CLOCK = 90_000.0;
+
+    // A whole splice_info_section, table_id first
+    public static SpliceInsert decode(byte[] section) {
+        ByteBuffer buffer = ByteBuffer.wrap(section);
+        if (section.length <= COMMAND_OFFSET || (buffer.get(0) & 0xFF) != TABLE_ID
+                || (buffer.get(4) & 0x80) != 0 || (buffer.get(13) & 0xFF) != SPLICE_INSERT) {
+            return null;
+        }
+
+        buffer.position(COMMAND_OFFSET);
+        long eventId = buffer.getInt() & 0xFFFFFFFFL;
+        if ((buffer.get() & 0x80) != 0) {
+            return new SpliceInsert(eventId, true, false, 0);
+        }
+
+        int flags = buffer.get() & 0xFF;
+        boolean outOfNetwork = (flags & 0x80) != 0;
+        boolean programSplice = (flags & 0x40) != 0;
+        boolean hasDuration = (flags & 0x20) != 0;
+        boolean immediate = (flags & 0x10) != 0;
+
+        if (programSplice && !immediate) {
+            skipSpliceTime(buffer);
+        } else if (!programSplice) {
+            int components = buffer.get() & 0xFF;
+            for (int i = 0; i < components; i++) {
+                buffer.get(); // component_tag
+                if (!immediate) {
+                    skipSpliceTime(buffer);
+                }
+            }
+        }
+
+        int breakDurationSeconds = 0;
+        if (hasDuration) {
+            long duration = ((buffer.get() & 0x01L) << 32) | (buffer.getInt() & 0xFFFFFFFFL);
+            breakDurationSeconds = (int) Math.ceil(duration / PTS_CLOCK);
+        }
+        return new SpliceInsert(eventId, false, outOfNetwork, breakDurationSeconds);
+    }
+
+    // Splice times are in the source's PTS clock, which isn't mapped to segments; cues snap to the next boundary
+    private static void skipSpliceTime(ByteBuffer buffer) {
+        boolean timeSpecified = (buffer.get() & 0x80) != 0;
+        if (timeSpecified) {
+            buffer.getInt();
+        }
+    }
+}
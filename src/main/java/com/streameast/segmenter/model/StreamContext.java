@@ -3,6 +3,7 @@ package com.streameast.segmenter.model;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.streameast.segmenter.model.enums.IngestProtocol;
 import com.streameast.segmenter.model.enums.VideoQuality;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -35,9 +36,24 @@ public class StreamContext implements Serializable {
     @JsonIgnore
     private final AtomicInteger segmentCount = new AtomicInteger(0);
 
-    private TreeSet<Integer> streamSequences = new TreeSet<>();
+    private SequenceWindow streamSequences = new SequenceWindow();
     private Map<String, String> playlistContents = new HashMap<>();
-    private Map<Integer, AdvertisementInfo> advertisementSegments = new HashMap<>();
+    private AdvertisementSchedule advertisementSegments = new AdvertisementSchedule();
+    // First sequences after a timestamp break still inside the playlist window: encoder restarts and
+    // both edges of spliced ads
+    private TreeSet<Integer> discontinuities = new TreeSet<>();
+    private int discontinuitySequence;
+    // Segments played by spliced ads that slid out of the window beyond the one sequence each took
+    private int hiddenAdSegments;
+    // Segments below this sequence are already deleted from remote storage
+    private int remoteRetainedFrom;
+    // Set for pushed streams: ffmpeg listens on streamUrl, the encoder pushes to ingestUrl
+    private IngestProtocol ingestProtocol;
+    private String ingestUrl;
+    // Encoder stopped for lack of viewers, the next playlist request resumes it
+    private boolean suspended;
+    // Per stream idle policy in minutes, 0 never suspends, null uses demand.idleSeconds
+    private Integer idleMinutes;
 
     public StreamContext() {}
 
@@ -81,18 +97,35 @@ public class StreamContext implements Serializable {
     }
 
     public void addSequence(int sequence, int maxSegments) {
-        streamSequences.add(sequence);
-        while (streamSequences.size() > maxSegments) {
-            streamSequences.pollFirst();
-        }
+        streamSequences.add(sequence, maxSegments);
     }
 
-    public Integer getFirstSequence() {
+    public int getFirstSequence() {
         return streamSequences.isEmpty() ? 0 : streamSequences.first();
     }
 
-    public TreeSet<Integer> getStreamSequences() {
-        return new TreeSet<>(streamSequences);
+    // Live view, callers only read it; mutate through addSequence
+    public SequenceWindow getStreamSequences() {
+        return streamSequences;
+    }
+
+    public void addDiscontinuity(int sequence) {
+        discontinuities.add(sequence);
+    }
+
+    // True if a discontinuity happened after previousSequence, up to and including sequence
+    public boolean hasDiscontinuity(int previousSequence, int sequence) {
+        Integer discontinuity = discontinuities.higher(previousSequence);
+        return discontinuity != null && discontinuity <= sequence;
+    }
+
+    // Drops discontinuities that slid out of the window, returns the EXT-X-DISCONTINUITY-SEQUENCE value
+    public int slideDiscontinuities(int firstSequence) {
+        while (!discontinuities.isEmpty() && discontinuities.first() < firstSequence) {
+            discontinuities.pollFirst();
+            discontinuitySequence++;
+        }
+        return discontinuitySequence;
     }
 
     public void setPlaylistContent(String storageType, String content) {
@@ -103,11 +136,24 @@ public class StreamContext implements Serializable {
         return playlistContents.get(storageType.toLowerCase());
     }
 
+    // A spliced ad replaces its start segment, players cross a discontinuity into it and back out.
+    // Cue breaks only tag live segments.
     public void addAdvertisement(int startSegment, AdvertisementInfo adInfo) {
         advertisementSegments.put(startSegment, adInfo);
+        if (!adInfo.isCueBreak()) {
+            discontinuities.add(startSegment);
+            discontinuities.add(startSegment + 1);
+        }
+    }
+
+    // Drops ads that slid out of the window, returns the EXT-X-MEDIA-SEQUENCE value: every segment a
+    // spliced ad played counts, not just the window sequence it took
+    public int slideAdvertisements(int firstSequence, int segmentDuration) {
+        hiddenAdSegments += advertisementSegments.removeEndedBefore(firstSequence, segmentDuration);
+        return firstSequence + hiddenAdSegments;
     }
 
-    public Map<Integer, AdvertisementInfo> getAdvertisements() {
-        return new HashMap<>(advertisementSegments);
+    public AdvertisementSchedule getAdvertisements() {
+        return advertisementSegments;
     }
 }
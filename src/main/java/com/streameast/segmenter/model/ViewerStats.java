@@ -0,0 +1,18 @@
+package com.streameast.segmenter.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class ViewerStats {
+    private final String streamId;
+    private final String storageType;
+    // Sessions polling the playlist within the concurrent window, across all nodes
+    private final long concurrentViewers;
+    private final long uniqueSessions;
+    // Playlist requests on all nodes since the stream was last unwatched for the unique window
+    private final long playlistRequests;
+    private final int concurrentWindowSeconds;
+    private final int uniqueWindowMinutes;
+}
@@ -0,0 +1,9 @@
+package com.streameast.segmenter.model.enums;
+
+// No EVENT type: the DVR window drops its oldest segments, which an EVENT playlist must never do
+public enum DvrPlaylistType {
+    // Sliding over the whole DVR window
+    LIVE,
+    // Closed snapshot of the window with EXT-X-ENDLIST
+    VOD
+}
@@ -0,0 +1,8 @@
+package com.streameast.segmenter.model.enums;
+
+public enum IngestOutputMode {
+    // ffmpeg writes segments to the stream directory, the pipeline picks them up from the file system
+    FILE,
+    // ffmpeg's HLS muxer PUTs every segment to the local ingest endpoint, nothing is written to disk
+    HTTP_PUT
+}
@@ -0,0 +1,7 @@
+package com.streameast.segmenter.model.enums;
+
+// Push ingest: ffmpeg listens on a port from the pool and the encoder connects to it
+public enum IngestProtocol {
+    RTMP,
+    SRT
+}
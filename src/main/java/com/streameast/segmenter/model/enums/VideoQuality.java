@@ -4,20 +4,22 @@ import lombok.Getter;
 
 @Getter
 public enum VideoQuality {
-    LOW(480, 360, 800, 96),
-    MEDIUM(1280, 720, 2500, 128),
-    HIGH(1920, 1080, 5000, 192);
+    LOW(480, 360, 800, 96, 1),
+    MEDIUM(1280, 720, 2500, 128, 2),
+    HIGH(1920, 1080, 5000, 192, 4);
 
     private final int width;
     private final int height;
     private final long videoBitrateKbps;
     private final long audioBitrateKbps;
+    private final int encoderThreads;
 
-    VideoQuality(int width, int height, long videoBitrateKbps, long audioBitrateKbps) {
+    VideoQuality(int width, int height, long videoBitrateKbps, long audioBitrateKbps, int encoderThreads) {
         this.width = width;
         this.height = height;
         this.videoBitrateKbps = videoBitrateKbps;
         this.audioBitrateKbps = audioBitrateKbps;
+        this.encoderThreads = encoderThreads;
     }
 
     public String getResolution() {
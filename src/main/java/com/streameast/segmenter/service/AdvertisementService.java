@@ -0,0 +1,413 @@
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.model.AdvertisementInfo;
+import com.streameast.segmenter.model.StreamContext;
+import com.streameast.segmenter.model.enums.VideoQuality;
+import com.streameast.segmenter.service.impl.StorageServiceFactory;
+import com.streameast.segmenter.util.AppConstants;
+import com.streameast.segmenter.web.dto.AdvertisementRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Ads are transcoded in the background, once per content hash and quality, into segments aligned to
+// the live segment duration. Every rendition is uploaded once per backend under its own prefix and
+// shared by all streams; splicing only adds it to the stream's advertisement schedule.
+@Slf4j
+@Service
+public class AdvertisementService {
+
+    private static final String UPLOADED_KEY_PREFIX = AppConstants.REDIS_INTERNAL_PREFIX + "ads:";
+    private static final int MAX_DURATION_SECONDS = 300;
+    private static final int PROBE_TIMEOUT_SECONDS = 15;
+    private static final int TRANSCODE_TIMEOUT_MINUTES = 10;
+    // Generated slate source, stored next to the uploads it is transcoded like
+    private static final String SLATE_IMAGE = "slate.png";
+
+    private final AppSettings appSettings;
+    private final RedisHelper redisHelper;
+    private final StorageServiceFactory storageServiceFactory;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ThreadPoolTaskExecutor advertisementExecutor;
+    private final int segmentDuration;
+    // Transcodes running on this node, concurrent requests for the same rendition share one
+    private final Map<String, CompletableFuture<Rendition>> transcodes = new ConcurrentHashMap<>();
+    // Slates per namespace and storage type, prepared on first use
+    private final Map<String, CompletableFuture<Rendition>> slates = new ConcurrentHashMap<>();
+
+    public AdvertisementService(AppSettings appSettings, RedisHelper redisHelper, StorageServiceFactory storageServiceFactory,
+                                StringRedisTemplate stringRedisTemplate,
+                                @Qualifier("advertisementTaskExecutor") ThreadPoolTaskExecutor advertisementExecutor) {
+        this.appSettings = appSettings;
+        this.redisHelper = redisHelper;
+        this.storageServiceFactory = storageServiceFactory;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.advertisementExecutor = advertisementExecutor;
+        this.segmentDuration = appSettings.getRequiredParams().getSegmentDuration();
+    }
+
+    public String insertAdvertisement(AdvertisementRequest request) throws IOException {
+        StreamContext context = redisHelper.getContext(request.getStreamId());
+        if (context == null) {
+            throw new IllegalArgumentException("Stream not found: " + request.getStreamId());
+        }
+        int lastPublished = context.getStreamSequences().isEmpty() ? -1 : context.getStreamSequences().last();
+        if (request.getStartSegment() == null || request.getStartSegment() <= lastPublished) {
+            throw new IllegalArgumentException("Start segment must be after the last published segment " + lastPublished);
+        }
+        if (request.getType() == AdvertisementRequest.Type.IMAGE && request.getDuration() == null) {
+            throw new IllegalArgumentException("Image advertisements need a duration");
+        }
+        if (request.getFile() == null || request.getFile().isEmpty()) {
+            throw new IllegalArgumentException("Advertisement file is empty");
+        }
+
+        String hash = storeUpload(request.getFile());
+        VideoQuality quality = context.getVideoQuality();
+        // The rendition depends on the content, how it is cut and the quality it is encoded in
+        String namespace = String.format("%s%s-%s-%s", AppConstants.ADVERTISEMENT_PREFIX, hash.substring(0, 32),
+                request.getDuration() == null ? "full" : request.getDuration(), quality.name().toLowerCase());
+
+        prepare(namespace, hash, request, quality, context.getStorageTypes())
+                .thenAccept(rendition -> splice(request.getStreamId(), request.getStartSegment(), rendition))
+                .exceptionally(e -> {
+                    log.error("Failed to prepare advertisement {} for stream {}", namespace, request.getStreamId(), e);
+                    return null;
+                });
+
+        return "Advertisement " + namespace + " scheduled at segment " + request.getStartSegment();
+    }
+
+    // One segment shown in place of a suspended stream, completes once it is uploaded to every storage type
+    public CompletableFuture<AdvertisementInfo> prepareSlate(VideoQuality quality, List<String> storageTypes) {
+        String namespace = String.format("%sslate-%d-%s", AppConstants.ADVERTISEMENT_PREFIX, segmentDuration,
+                quality.name().toLowerCase());
+        List<CompletableFuture<Rendition>> renditions = new ArrayList<>();
+        for (String storageType : storageTypes) {
+            String key = namespace + ":" + storageType.toLowerCase();
+            // A failed slate is prepared again by the next suspension
+            slates.computeIfPresent(key, (k, slate) -> slate.isCompletedExceptionally() ? null : slate);
+            renditions.add(slates.computeIfAbsent(key, k -> {
+                AdvertisementRequest request = AdvertisementRequest.builder()
+                        .type(AdvertisementRequest.Type.IMAGE)
+                        .duration(segmentDuration)
+                        .build();
+                return CompletableFuture.runAsync(this::storeSlateImage, advertisementExecutor)
+                        .thenCompose(v -> prepare(namespace, SLATE_IMAGE, request, quality, List.of(storageType)));
+            }));
+        }
+
+        return CompletableFuture.allOf(renditions.toArray(CompletableFuture[]::new))
+                .thenApply(v -> {
+                    Rendition rendition = renditions.get(0).join();
+                    return new AdvertisementInfo(rendition.namespace(), rendition.duration(), rendition.segmentNames(), true, true);
+                });
+    }
+
+    private void storeSlateImage() {
+        Path image = appSettings.resolvePersistentPath("ads", "uploads", SLATE_IMAGE);
+        if (Files.exists(image)) {
+            return;
+        }
+        BufferedImage slate = new BufferedImage(1280, 720, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = slate.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            graphics.setColor(Color.BLACK);
+            graphics.fillRect(0, 0, slate.getWidth(), slate.getHeight());
+            graphics.setColor(Color.WHITE);
+            graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 48));
+            String text = "The stream will resume shortly";
+            int width = graphics.getFontMetrics().stringWidth(text);
+            graphics.drawString(text, (slate.getWidth() - width) / 2, slate.getHeight() / 2);
+        } finally {
+            graphics.dispose();
+        }
+
+        try {
+            Files.createDirectories(image.getParent());
+            Path partial = image.resolveSibling(UUID.randomUUID() + ".part");
+            ImageIO.write(slate, "png", partial.toFile());
+            Files.move(partial, image, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to store slate image", e);
+        }
+    }
+
+    private CompletableFuture<Rendition> prepare(String namespace, String hash, AdvertisementRequest request,
+                                                 VideoQuality quality, List<String> storageTypes) {
+        List<StorageService> services = storageServiceFactory.getStorageServices(storageTypes);
+        Rendition uploaded = getUploadedRendition(namespace, services);
+        if (uploaded != null) {
+            log.info("Advertisement {} already uploaded, reusing it", namespace);
+            return CompletableFuture.completedFuture(uploaded);
+        }
+
+        return transcodes.computeIfAbsent(namespace, key -> CompletableFuture
+                        .supplyAsync(() -> transcode(namespace, hash, request, quality), advertisementExecutor)
+                        .whenComplete((rendition, e) -> transcodes.remove(key)))
+                .thenApplyAsync(rendition -> upload(rendition, services), advertisementExecutor);
+    }
+
+    // Complete only if every backend of the stream has the rendition
+    private Rendition getUploadedRendition(String namespace, List<StorageService> services) {
+        Rendition rendition = null;
+        for (StorageService service : services) {
+            String value = stringRedisTemplate.opsForValue().get(uploadedKey(namespace, service));
+            if (value == null) {
+                return null;
+            }
+            rendition = Rendition.parse(namespace, value);
+            if (!isPresent(rendition, service)) {
+                return null;
+            }
+        }
+        return rendition;
+    }
+
+    private Rendition upload(Rendition rendition, List<StorageService> services) {
+        Path directory = appSettings.resolvePersistentPath("ads", rendition.namespace());
+        for (StorageService service : services) {
+            String key = uploadedKey(rendition.namespace(), service);
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key)) && isPresent(rendition, service)) {
+                continue;
+            }
+            try {
+                List<CompletableFuture<String>> uploads = new ArrayList<>();
+                for (String segmentName : rendition.segmentNames()) {
+                    uploads.add(service.uploadSegment(Files.readAllBytes(directory.resolve(segmentName)), segmentName, rendition.namespace()));
+                }
+                CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)).join();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read advertisement " + rendition.namespace(), e);
+            }
+            stringRedisTemplate.opsForValue().set(key, rendition.format());
+            log.info("Uploaded advertisement {} to {}", rendition.namespace(), service.getStorageType());
+        }
+        return rendition;
+    }
+
+    // Upload markers are cluster wide, a node local backend also needs the segments on this node
+    private boolean isPresent(Rendition rendition, StorageService service) {
+        return !service.isNodeLocal() || rendition.segmentNames().stream()
+                .allMatch(segmentName -> Files.exists(appSettings.resolvePath("streams", rendition.namespace(), segmentName)));
+    }
+
+    private void splice(String streamId, int startSegment, Rendition rendition) {
+        boolean[] late = new boolean[1];
+        StreamContext context = redisHelper.updateContext(streamId, current -> {
+            late[0] = !current.getStreamSequences().isEmpty() && current.getStreamSequences().last() >= startSegment;
+            if (!late[0]) {
+                current.addAdvertisement(startSegment,
+                        new AdvertisementInfo(rendition.namespace(), rendition.duration(), rendition.segmentNames(), true));
+            }
+        });
+        if (context == null) {
+            log.warn("Stream {} ended before advertisement {} was ready", streamId, rendition.namespace());
+        } else if (late[0]) {
+            log.warn("Advertisement {} was ready after segment {} of stream {} was published, not inserted",
+                    rendition.namespace(), startSegment, streamId);
+        } else {
+            log.info("Advertisement {} spliced into stream {} at segment {}", rendition.namespace(), streamId, startSegment);
+        }
+    }
+
+    // Returns the SHA-256 of the upload, kept under ads/uploads by its hash
+    private String storeUpload(MultipartFile file) throws IOException {
+        Path uploads = appSettings.resolvePersistentPath("ads", "uploads");
+        Files.createDirectories(uploads);
+        Path partial = uploads.resolve(UUID.randomUUID() + ".part");
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+            Files.copy(in, partial);
+        }
+
+        String hash = HexFormat.of().formatHex(digest.digest());
+        Path target = uploads.resolve(hash);
+        if (Files.exists(target)) {
+            Files.delete(partial);
+        } else {
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return hash;
+    }
+
+    private Rendition transcode(String namespace, String hash, AdvertisementRequest request, VideoQuality quality) {
+        Path directory = appSettings.resolvePersistentPath("ads", namespace);
+        Path source = appSettings.resolvePersistentPath("ads", "uploads", hash);
+        try {
+            int duration = request.getDuration() != null ? request.getDuration() : probeDuration(source);
+            duration = Math.max(1, Math.min(duration, MAX_DURATION_SECONDS));
+
+            List<String> existing = listSegments(directory);
+            if (!existing.isEmpty()) {
+                return new Rendition(namespace, duration, existing);
+            }
+
+            long startTime = System.currentTimeMillis();
+            Path work = appSettings.resolvePersistentPath("ads", namespace + ".tmp");
+            FileUtils.deleteDirectory(work.toFile());
+            Files.createDirectories(work);
+
+            Path logFile = appSettings.resolvePath("logs", namespace + ".log");
+            Files.createDirectories(logFile.getParent());
+            Process process = new ProcessBuilder(buildTranscodeCommand(source, work, request.getType(), quality, duration))
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.appendTo(logFile.toFile()))
+                    .start();
+            if (!process.waitFor(TRANSCODE_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+                throw new RuntimeException("Advertisement transcode timed out: " + namespace);
+            }
+            if (process.exitValue() != 0) {
+                throw new RuntimeException("Advertisement transcode failed with exit code " + process.exitValue() + ": " + namespace);
+            }
+
+            Files.move(work, directory, StandardCopyOption.ATOMIC_MOVE);
+            List<String> segmentNames = listSegments(directory);
+            if (segmentNames.isEmpty()) {
+                throw new RuntimeException("Advertisement transcode produced no segments: " + namespace);
+            }
+            log.info("Transcoded advertisement {} into {} segments in {} ms",
+                    namespace, segmentNames.size(), System.currentTimeMillis() - startTime);
+            return new Rendition(namespace, Math.min(duration, segmentNames.size() * segmentDuration), segmentNames);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to transcode advertisement " + namespace, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while transcoding advertisement " + namespace, e);
+        }
+    }
+
+    // Same size and bitrates as the live encoding, keyframes on every segment boundary
+    private List<String> buildTranscodeCommand(Path source, Path work, AdvertisementRequest.Type type,
+                                               VideoQuality quality, int duration) {
+        List<String> command = new ArrayList<>();
+        command.add(appSettings.getRequiredServices().getFfmpeg());
+        command.add("-nostdin");
+        command.add("-loglevel");
+        command.add("warning");
+
+        if (type == AdvertisementRequest.Type.IMAGE) {
+            command.addAll(List.of("-loop", "1", "-framerate", "25", "-t", String.valueOf(duration), "-i", source.toString()));
+            command.addAll(List.of("-f", "lavfi", "-t", String.valueOf(duration), "-i", "anullsrc=channel_layout=stereo:sample_rate=48000"));
+            command.addAll(List.of("-map", "0:v", "-map", "1:a"));
+        } else {
+            command.addAll(List.of("-i", source.toString(), "-t", String.valueOf(duration)));
+            command.addAll(List.of("-map", "0:v:0", "-map", "0:a:0?"));
+        }
+
+        command.add("-vf");
+        command.add(String.format("scale=%1$d:%2$d:force_original_aspect_ratio=decrease,pad=%1$d:%2$d:(ow-iw)/2:(oh-ih)/2,setsar=1,format=yuv420p",
+                quality.getWidth(), quality.getHeight()));
+        command.addAll(List.of("-c:v", "libx264", "-b:v", quality.getVideoBitrateKbps() + "k"));
+        command.addAll(List.of("-force_key_frames", "expr:gte(t,n_forced*" + segmentDuration + ")"));
+        command.addAll(List.of("-c:a", "aac", "-b:a", quality.getAudioBitrateKbps() + "k", "-ar", "48000", "-ac", "2"));
+        command.addAll(List.of("-f", "segment", "-segment_time", String.valueOf(segmentDuration),
+                "-segment_format", "mpegts", "-reset_timestamps", "1"));
+        command.add(work.resolve("segment_%d.ts").toString());
+        return command;
+    }
+
+    private int probeDuration(Path source) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(appSettings.getRequiredServices().getFfprobe(),
+                "-v", "error",
+                "-show_entries", "format=duration",
+                "-of", "csv=p=0",
+                source.toString())
+                .redirectErrorStream(true)
+                .start();
+        // Read on another thread, a stalled ffprobe must not block us past the timeout
+        CompletableFuture<String> output = CompletableFuture.supplyAsync(() -> {
+            try {
+                return new String(process.getInputStream().readAllBytes()).trim();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        if (!process.waitFor(PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            throw new RuntimeException("Advertisement probe timed out");
+        }
+        String result = output.join();
+        try {
+            return (int) Math.ceil(Double.parseDouble(result));
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Advertisement duration unknown, probe returned: " + result);
+        }
+    }
+
+    // Segment names in playback order
+    private List<String> listSegments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.matches("segment_\\d+\\.ts"))
+                    .sorted((a, b) -> Integer.compare(segmentNumber(a), segmentNumber(b)))
+                    .toList();
+        }
+    }
+
+    private static int segmentNumber(String segmentName) {
+        return Integer.parseInt(segmentName.substring("segment_".length(), segmentName.length() - ".ts".length()));
+    }
+
+    private static String uploadedKey(String namespace, StorageService service) {
+        return UPLOADED_KEY_PREFIX + namespace + ":" + service.getStorageType();
+    }
+
+    // Uploaded as segment_0.ts .. segment_{count-1}.ts under the namespace
+    private record Rendition(String namespace, int duration, List<String> segmentNames) {
+
+        private String format() {
+            return duration + ":" + segmentNames.size();
+        }
+
+        private static Rendition parse(String namespace, String value) {
+            String[] parts = value.split(":");
+            List<String> segmentNames = new ArrayList<>();
+            for (int i = 0; i < Integer.parseInt(parts[1]); i++) {
+                segmentNames.add("segment_" + i + ".ts");
+            }
+            return new Rendition(namespace, Integer.parseInt(parts[0]), segmentNames);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.streameast.segmenter.service;
+
+import lombok.Getter;
+
+@Getter
+public class CapacityExceededException extends RuntimeException {
+
+    // Server url of a node that reported enough free capacity, null if none did
+    private final String alternativeNodeUrl;
+
+    public CapacityExceededException(String message, String alternativeNodeUrl) {
+        super(message);
+        this.alternativeNodeUrl = alternativeNodeUrl;
+    }
+}
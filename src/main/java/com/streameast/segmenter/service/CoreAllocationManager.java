@@ -0,0 +1,165 @@
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.model.enums.VideoQuality;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Service
+public class CoreAllocationManager {
+
+    private static final int TASKSET_TIMEOUT_SECONDS = 5;
+
+    private final String tasksetPath;
+    private final boolean pinningEnabled;
+    private final int totalCores = Runtime.getRuntime().availableProcessors();
+    // Insertion order is start order, which keeps rebalancing deterministic
+    private final Map<String, Allocation> allocations = new LinkedHashMap<>();
+
+    public CoreAllocationManager(AppSettings appSettings) {
+        this.tasksetPath = appSettings.getEncoder().getTasksetPath();
+        this.pinningEnabled = appSettings.getEncoder().isCpuPinning() && isTasksetAvailable();
+        log.info("Encoder cpu pinning {} for {} cores", pinningEnabled ? "enabled" : "disabled", totalCores);
+    }
+
+    public int getThreads(VideoQuality quality) {
+        return Math.min(quality.getEncoderThreads(), totalCores);
+    }
+
+    // Returns the command prefix that pins the encoder, empty when pinning is off
+    public synchronized List<String> allocate(String streamId, VideoQuality quality) {
+        if (!pinningEnabled) {
+            return List.of();
+        }
+
+        Allocation allocation = allocations.get(streamId);
+        if (allocation == null) {
+            allocation = new Allocation(getThreads(quality));
+            allocation.cores = pick(currentLoad(), allocation.threads);
+            allocations.put(streamId, allocation);
+            log.info("Stream {} pinned to cores {}", streamId, toCpuList(allocation.cores));
+        }
+        return List.of(tasksetPath, "-c", toCpuList(allocation.cores));
+    }
+
+    public synchronized void attach(String streamId, long pid) {
+        Allocation allocation = allocations.get(streamId);
+        if (allocation != null) {
+            allocation.pid = pid;
+        }
+    }
+
+    public synchronized void release(String streamId) {
+        if (allocations.remove(streamId) != null) {
+            rebalance();
+        }
+    }
+
+    // Re-packs the remaining encoders so freed cores are shared out again instead of staying idle
+    private void rebalance() {
+        int[] load = new int[totalCores];
+        for (Map.Entry<String, Allocation> entry : allocations.entrySet()) {
+            Allocation allocation = entry.getValue();
+            int[] cores = pick(load, allocation.threads);
+            if (!Arrays.equals(cores, allocation.cores)) {
+                allocation.cores = cores;
+                apply(entry.getKey(), allocation);
+            }
+            for (int core : cores) {
+                load[core]++;
+            }
+        }
+    }
+
+    private int[] currentLoad() {
+        int[] load = new int[totalCores];
+        allocations.values().forEach(allocation -> {
+            for (int core : allocation.cores) {
+                load[core]++;
+            }
+        });
+        return load;
+    }
+
+    // Contiguous block of cores with the least encoders on it, neighbouring cores usually share cache
+    private int[] pick(int[] load, int threads) {
+        int bestStart = 0;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int start = 0; start + threads <= load.length; start++) {
+            int sum = 0;
+            for (int core = start; core < start + threads; core++) {
+                sum += load[core];
+            }
+            if (sum < bestLoad) {
+                bestLoad = sum;
+                bestStart = start;
+            }
+        }
+
+        int[] cores = new int[threads];
+        for (int i = 0; i < threads; i++) {
+            cores[i] = bestStart + i;
+        }
+        return cores;
+    }
+
+    private void apply(String streamId, Allocation allocation) {
+        if (allocation.pid <= 0) {
+            return;
+        }
+        String cpuList = toCpuList(allocation.cores);
+        try {
+            // -a moves every thread of the running encoder, not only the main one
+            Process process = new ProcessBuilder(tasksetPath, "-a", "-p", "-c", cpuList, String.valueOf(allocation.pid))
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (!process.waitFor(TASKSET_TIMEOUT_SECONDS, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                log.warn("Failed to re-pin stream {} to cores {}", streamId, cpuList);
+                return;
+            }
+            log.info("Stream {} re-pinned to cores {}", streamId, cpuList);
+        } catch (Exception e) {
+            log.warn("Failed to re-pin stream {}: {}", streamId, e.getMessage());
+        }
+    }
+
+    private boolean isTasksetAvailable() {
+        if (!System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("linux")) {
+            return false;
+        }
+        try {
+            Process process = new ProcessBuilder(tasksetPath, "-V")
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            return process.waitFor(TASKSET_TIMEOUT_SECONDS, TimeUnit.SECONDS) && process.exitValue() == 0;
+        } catch (Exception e) {
+            log.warn("taskset not available at {}: {}", tasksetPath, e.getMessage());
+            return false;
+        }
+    }
+
+    private static String toCpuList(int[] cores) {
+        return Arrays.stream(cores).mapToObj(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    private static class Allocation {
+        private final int threads;
+        private int[] cores = new int[0];
+        private long pid = -1;
+
+        private Allocation(int threads) {
+            this.threads = threads;
+        }
+    }
+}
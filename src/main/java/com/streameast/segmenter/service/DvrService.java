@@ -0,0 +1,180 @@
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.model.DvrIndex;
+import com.streameast.segmenter.model.StreamContext;
+import com.streameast.segmenter.model.enums.DvrPlaylistType;
+import com.streameast.segmenter.service.impl.StorageServiceFactory;
+import com.streameast.segmenter.util.AppConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Time-shift window of each stream, kept apart from the StreamContext so the live playlist window
+// stays small. The node publishing a stream owns its index and appends every published segment to
+// Redis, other nodes render from a copy refreshed at most once per segment duration.
+@Slf4j
+@Service
+public class DvrService {
+
+    private static final String KEY_PREFIX = AppConstants.REDIS_INTERNAL_PREFIX + "dvr:";
+
+    private final AppSettings appSettings;
+    private final RedisHelper redisHelper;
+    private final StorageServiceFactory storageServiceFactory;
+    private final Map<String, DvrWindow> owned = new ConcurrentHashMap<>();
+    private final Map<String, DvrWindow> remote = new ConcurrentHashMap<>();
+
+    public DvrService(AppSettings appSettings, RedisHelper redisHelper, StorageServiceFactory storageServiceFactory) {
+        this.appSettings = appSettings;
+        this.redisHelper = redisHelper;
+        this.storageServiceFactory = storageServiceFactory;
+    }
+
+    public boolean isEnabled() {
+        return appSettings.getDvrWindowSegments() > 0;
+    }
+
+    // Called by the stream's pipeline actor after the sequences were published
+    public void record(StreamContext context, List<Integer> sequences) {
+        if (!isEnabled() || sequences.isEmpty()) {
+            return;
+        }
+
+        String key = KEY_PREFIX + context.getId();
+        int capacity = appSettings.getDvrWindowSegments();
+        DvrWindow window = owned.computeIfAbsent(context.getId(),
+                id -> new DvrWindow(DvrIndex.decode(redisHelper.getBytes(key), capacity), context.getStorageTypes()));
+        int durationMs = appSettings.getRequiredParams().getSegmentDuration() * 1000;
+
+        ByteBuffer records = ByteBuffer.allocate(sequences.size() * DvrIndex.RECORD_BYTES);
+        synchronized (window.index) {
+            for (int sequence : sequences) {
+                int previous = window.index.isEmpty() ? sequence - 1 : window.index.lastSequence();
+                if (sequence <= previous) {
+                    continue;
+                }
+                int discontinuity = window.index.lastDiscontinuity() + (context.hasDiscontinuity(previous, sequence) ? 1 : 0);
+                window.index.add(sequence, durationMs, discontinuity);
+                DvrIndex.encode(records, sequence, durationMs, discontinuity);
+            }
+        }
+        if (records.position() == 0) {
+            return;
+        }
+
+        try {
+            long length = redisHelper.appendBytes(key, records.array());
+            // Appends only grow, rewrite the key with the current window once it is a quarter over
+            if (length > (long) capacity * DvrIndex.RECORD_BYTES * 5 / 4) {
+                byte[] compacted;
+                synchronized (window.index) {
+                    compacted = window.index.toBytes();
+                }
+                redisHelper.setBytes(key, compacted);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to store DVR index of stream {}: {}", context.getId(), e.getMessage());
+        }
+    }
+
+    // Empty if the stream has no DVR window or doesn't use the storage type
+    public Optional<String> render(String streamId, String storageType, DvrPlaylistType type) {
+        if (!isEnabled()) {
+            return Optional.empty();
+        }
+        DvrWindow window = getWindow(streamId);
+        if (window == null || window.storageTypes.stream().noneMatch(storageType::equalsIgnoreCase)) {
+            return Optional.empty();
+        }
+        Optional<StorageService> service = storageServiceFactory.getAvailableStorageServices(storageType);
+        if (service.isEmpty()) {
+            return Optional.empty();
+        }
+
+        synchronized (window.index) {
+            DvrIndex index = window.index;
+            if (index.isEmpty()) {
+                return Optional.empty();
+            }
+
+            int targetDuration = 0;
+            for (int i = 0; i < index.size(); i++) {
+                targetDuration = Math.max(targetDuration, (index.durationMsAt(i) + 999) / 1000);
+            }
+
+            StringBuilder playlist = new StringBuilder();
+            playlist.append("#EXTM3U\n")
+                    .append("#EXT-X-VERSION:3\n")
+                    .append("#EXT-X-TARGETDURATION:").append(targetDuration).append("\n");
+            if (type != DvrPlaylistType.LIVE) {
+                playlist.append("#EXT-X-PLAYLIST-TYPE:").append(type.name()).append("\n");
+            }
+            playlist.append("#EXT-X-MEDIA-SEQUENCE:").append(index.sequenceAt(0)).append("\n")
+                    .append("#EXT-X-DISCONTINUITY-SEQUENCE:").append(index.discontinuityAt(0)).append("\n");
+
+            for (int i = 0; i < index.size(); i++) {
+                if (i > 0 && index.discontinuityAt(i) != index.discontinuityAt(i - 1)) {
+                    playlist.append("#EXT-X-DISCONTINUITY\n");
+                }
+                playlist.append("#EXTINF:").append(String.format(Locale.ROOT, "%.3f", index.durationMsAt(i) / 1000.0)).append(",\n")
+                        .append(service.get().getSegmentUrl(streamId, "segment_" + index.sequenceAt(i) + ".ts")).append("\n");
+            }
+
+            if (type == DvrPlaylistType.VOD) {
+                playlist.append("#EXT-X-ENDLIST\n");
+            }
+            return Optional.of(playlist.toString());
+        }
+    }
+
+    public void removeStream(String streamId) {
+        owned.remove(streamId);
+        remote.remove(streamId);
+        try {
+            redisHelper.deleteContext(KEY_PREFIX + streamId);
+        } catch (Exception e) {
+            log.warn("Failed to delete DVR index of stream {}: {}", streamId, e.getMessage());
+        }
+    }
+
+    private DvrWindow getWindow(String streamId) {
+        DvrWindow window = owned.get(streamId);
+        if (window != null) {
+            return window;
+        }
+
+        long maxAgeMs = appSettings.getRequiredParams().getSegmentDuration() * 1000L;
+        window = remote.get(streamId);
+        if (window != null && System.currentTimeMillis() - window.loadedAt < maxAgeMs) {
+            return window;
+        }
+
+        StreamContext context = redisHelper.getContext(streamId);
+        if (context == null) {
+            remote.remove(streamId);
+            return null;
+        }
+        window = new DvrWindow(DvrIndex.decode(redisHelper.getBytes(KEY_PREFIX + streamId), appSettings.getDvrWindowSegments()),
+                context.getStorageTypes());
+        remote.put(streamId, window);
+        return window;
+    }
+
+    private static class DvrWindow {
+        private final DvrIndex index;
+        private final List<String> storageTypes;
+        private final long loadedAt = System.currentTimeMillis();
+
+        private DvrWindow(DvrIndex index, List<String> storageTypes) {
+            this.index = index;
+            this.storageTypes = List.copyOf(storageTypes);
+        }
+    }
+}
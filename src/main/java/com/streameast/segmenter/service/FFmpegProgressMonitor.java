@@ -0,0 +1,171 @@
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.model.FFmpegProgress;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToDoubleFunction;
+
+@Slf4j
+@Service
+public class FFmpegProgressMonitor {
+
+    private static final Logger performanceLogger = LoggerFactory.getLogger("com.streameast.segmenter.performance");
+    private final AppSettings appSettings;
+    private final MeterRegistry meterRegistry;
+    private final Counter laggingEvents;
+    private final Map<String, StreamProgress> streams = new ConcurrentHashMap<>();
+
+    public FFmpegProgressMonitor(AppSettings appSettings, MeterRegistry meterRegistry) {
+        this.appSettings = appSettings;
+        this.meterRegistry = meterRegistry;
+        this.laggingEvents = Counter.builder("segmenter.ffmpeg.lagging.events")
+                .description("Encoders that fell behind realtime")
+                .register(meterRegistry);
+        Gauge.builder("segmenter.ffmpeg.lagging", streams, map -> map.values().stream().filter(p -> p.lagging).count())
+                .description("Encoders currently running slower than realtime")
+                .register(meterRegistry);
+    }
+
+    // Reads ffmpeg's -progress output until the process closes it. Runs on the thread that
+    // supervises the process, so no extra thread is needed per encoder.
+    public void consume(String streamId, InputStream progressOutput) {
+        StreamProgress streamProgress = streams.computeIfAbsent(streamId, this::register);
+        FFmpegProgress block = new FFmpegProgress();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(progressOutput, StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf('=');
+                if (separator <= 0) {
+                    continue;
+                }
+                String key = line.substring(0, separator).trim();
+                String value = line.substring(separator + 1).trim();
+
+                if ("progress".equals(key)) {
+                    block.setUpdatedAt(System.currentTimeMillis());
+                    publish(streamId, streamProgress, block);
+                    block = new FFmpegProgress();
+                } else {
+                    apply(block, key, value);
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Progress output closed for stream {}: {}", streamId, e.getMessage());
+        }
+    }
+
+    public FFmpegProgress getProgress(String streamId) {
+        StreamProgress streamProgress = streams.get(streamId);
+        return streamProgress != null ? streamProgress.latest.get() : null;
+    }
+
+    public boolean isLagging(String streamId) {
+        StreamProgress streamProgress = streams.get(streamId);
+        return streamProgress != null && streamProgress.lagging;
+    }
+
+    public List<String> getLaggingStreamIds() {
+        return streams.entrySet().stream()
+                .filter(entry -> entry.getValue().lagging)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    public void release(String streamId) {
+        StreamProgress streamProgress = streams.remove(streamId);
+        if (streamProgress != null) {
+            streamProgress.meters.forEach(meterRegistry::remove);
+        }
+    }
+
+    private void publish(String streamId, StreamProgress streamProgress, FFmpegProgress block) {
+        streamProgress.latest.set(block);
+
+        // speed is N/A until ffmpeg has output something, don't count those blocks
+        if (block.getSpeed() <= 0) {
+            return;
+        }
+
+        AppSettings.EncoderParams encoder = appSettings.getEncoder();
+        if (block.getSpeed() < encoder.getLaggingSpeedThreshold()) {
+            if (++streamProgress.slowReports >= encoder.getLaggingReportCount() && !streamProgress.lagging) {
+                streamProgress.lagging = true;
+                laggingEvents.increment();
+                performanceLogger.warn("FFmpeg falling behind realtime for streamId: {} (speed: {}x, fps: {}, dropped: {})",
+                        streamId, block.getSpeed(), block.getFps(), block.getDropFrames());
+            }
+        } else {
+            if (streamProgress.lagging) {
+                performanceLogger.info("FFmpeg back to realtime for streamId: {} (speed: {}x)", streamId, block.getSpeed());
+            }
+            streamProgress.slowReports = 0;
+            streamProgress.lagging = false;
+        }
+    }
+
+    private void apply(FFmpegProgress block, String key, String value) {
+        if ("N/A".equals(value)) {
+            return;
+        }
+        try {
+            switch (key) {
+                case "frame" -> block.setFrame(Long.parseLong(value));
+                case "fps" -> block.setFps(Double.parseDouble(value));
+                case "bitrate" -> block.setBitrateKbps(Double.parseDouble(value.replace("kbits/s", "")));
+                // out_time_ms is in microseconds as well, out_time_us is the unambiguous name
+                case "out_time_us" -> block.setOutTimeMs(Long.parseLong(value) / 1000);
+                case "speed" -> block.setSpeed(Double.parseDouble(value.replace("x", "")));
+                case "drop_frames" -> block.setDropFrames(Long.parseLong(value));
+                case "dup_frames" -> block.setDupFrames(Long.parseLong(value));
+                default -> {
+                }
+            }
+        } catch (NumberFormatException e) {
+            log.trace("Ignoring unparsable progress value {}={}", key, value);
+        }
+    }
+
+    private StreamProgress register(String streamId) {
+        StreamProgress streamProgress = new StreamProgress();
+        streamProgress.meters.add(gauge("segmenter.ffmpeg.fps", streamId, streamProgress, FFmpegProgress::getFps));
+        streamProgress.meters.add(gauge("segmenter.ffmpeg.speed", streamId, streamProgress, FFmpegProgress::getSpeed));
+        streamProgress.meters.add(gauge("segmenter.ffmpeg.bitrate.kbps", streamId, streamProgress, FFmpegProgress::getBitrateKbps));
+        streamProgress.meters.add(gauge("segmenter.ffmpeg.out.time.ms", streamId, streamProgress, FFmpegProgress::getOutTimeMs));
+        streamProgress.meters.add(gauge("segmenter.ffmpeg.dropped.frames", streamId, streamProgress, FFmpegProgress::getDropFrames));
+        streamProgress.meters.add(gauge("segmenter.ffmpeg.duplicated.frames", streamId, streamProgress, FFmpegProgress::getDupFrames));
+        return streamProgress;
+    }
+
+    private Meter gauge(String name, String streamId, StreamProgress streamProgress, ToDoubleFunction<FFmpegProgress> value) {
+        return Gauge.builder(name, streamProgress, p -> value.applyAsDouble(p.latest.get()))
+                .tag("streamId", streamId)
+                .register(meterRegistry);
+    }
+
+    private static class StreamProgress {
+        private final AtomicReference<FFmpegProgress> latest = new AtomicReference<>(new FFmpegProgress());
+        private final List<Meter> meters = new ArrayList<>();
+        // Only touched by the supervising thread, read elsewhere
+        private int slowReports;
+        private volatile boolean lagging;
+    }
+}
@@ -1,181 +1,584 @@
-package com.streameast.segmenter.service;
-
-import com.streameast.segmenter.config.AppSettings;
-import com.streameast.segmenter.model.StreamContext;
-import com.streameast.segmenter.model.enums.VideoQuality;
-import com.streameast.segmenter.model.Watermark;
-import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
-import org.springframework.stereotype.Service;
-
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
-
-
-@Slf4j
-@Service
-public class FFmpegService {
-
-    private static final Logger performanceLogger = LoggerFactory.getLogger("com.streameast.segmenter.performance");
-    private final AppSettings appSettings;
-    private final String ffmpegPath;
-    private final String ffprobePath;
-    private final Integer defaultSegmentDuration;
-    private final ThreadPoolTaskExecutor ffmpegStreamExecutor;
-    private final RedisHelper redisHelper;
-
-    public FFmpegService(@Qualifier("ffmpegStreamExecutor") ThreadPoolTaskExecutor ffmpegStreamExecutor, AppSettings appConfig, RedisHelper redisHelper) {
-        this.ffmpegStreamExecutor = ffmpegStreamExecutor;
-        this.appSettings = appConfig;
-        this.ffmpegPath = appConfig.getRequiredServices().getFfmpeg();
-        this.ffprobePath = appConfig.getRequiredServices().getFfprobe();
-        this.defaultSegmentDuration = appConfig.getRequiredParams().getSegmentDuration();
-        this.redisHelper = redisHelper;
-    }
-
-    public CompletableFuture<Void> startStreamProcessing(String streamId, String streamUrl, Path outputPattern, VideoQuality quality, Watermark watermark) {
-        long startTime = System.currentTimeMillis();
-        StreamContext context = redisHelper.getContext(streamId);
-        if(context == null)
-            throw new RuntimeException("FFmpeg process failed because of context is null: " + streamId);
-
-        return CompletableFuture.runAsync(() -> {
-            try{
-
-                // Ensure output directory exists
-                Files.createDirectories(outputPattern.getParent());
-
-                List<String> command = buildFFmpegCommand(streamUrl, outputPattern, quality, watermark);
-                log.info("Starting FFmpeg process with command: {}", String.join(" ", command));
-
-                ProcessBuilder pb = new ProcessBuilder(command);
-                pb.inheritIO();
-                Process process = pb.start();
-                context.setPId(process.pid());
-                context.setActive(true);
-                context.setProccessing(true);
-                redisHelper.saveContext(streamId, context);
-
-                int exitCode = process.waitFor();
-
-                if (exitCode != 0 && exitCode != 255) { // 255 is for normal termination
-                    performanceLogger.warn("FFmpeg stopped {}", streamId);
-                }
-
-                long duration = System.currentTimeMillis() - startTime;
-                performanceLogger.info("FFmpeg process completed in {} ms for streamId: {}", duration, streamId);
-
-            } catch (Exception e) {
-                long duration = System.currentTimeMillis() - startTime;
-                performanceLogger.error("FFmpeg process failed in {} ms for streamId: {}", duration, streamId);
-                log.error("Error in FFmpeg processing: {}", e.getMessage());
-                throw new RuntimeException("Failed to process stream", e);
-            } finally {
-                context.setProccessing(false);
-                context.setActive(false);
-                redisHelper.saveContext(streamId, context);
-            }
-
-        }, ffmpegStreamExecutor);
-    }
-
-    private List<String> buildFFmpegCommand(String streamUrl, Path outputPattern,
-                                            VideoQuality quality, Watermark watermark) {
-        List<String> command = new ArrayList<>();
-        command.add(ffmpegPath);
-
-        // HLS için gerekli input ayarları
-        command.add("-live_start_index");
-        command.add("-1");
-        command.add("-i");
-        command.add(streamUrl);
-
-        StringBuilder filterChain = new StringBuilder();
-
-        if (watermark != null && StringUtils.isNotEmpty(watermark.getImagePath())) {
-            command.add("-i");
-            command.add(watermark.getImagePath());
-
-            filterChain.append("[0:v]setpts=PTS-STARTPTS,")  // Timestamp'leri sıfırla
-                    .append("select='not(mod(n\\,2))'[filtered];")
-                    .append("[1:v]scale=-1:").append(watermark.getSize())
-                    .append(",format=rgba,colorchannelmixer=aa=").append(watermark.getOpacity())
-                    .append("[watermark];")
-                    .append("[filtered][watermark]overlay=")
-                    .append(watermark.getX()).append(":").append(watermark.getY())
-                    .append("[outv]");
-        } else if (watermark != null && StringUtils.isNotEmpty(watermark.getText())) {
-            filterChain.append("[0:v]setpts=PTS-STARTPTS,")  // Timestamp'leri sıfırla
-                    .append("select='not(mod(n\\,2))',")
-                    .append("drawtext=text='").append(watermark.getText())
-                    .append("':fontsize=").append(watermark.getSize())
-                    .append(":fontcolor=").append(watermark.getColor())
-                    .append("@").append(watermark.getOpacity())
-                    .append(":x=").append(watermark.getX())
-                    .append(":y=").append(watermark.getY())
-                    .append("[outv]");
-        } else {
-            filterChain.append("[0:v]setpts=PTS-STARTPTS,select='not(mod(n\\,2))'[outv]");
-        }
-
-        command.add("-filter_complex");
-        command.add(filterChain.toString());
-
-        command.add("-map");
-        command.add("[outv]");
-        command.add("-map");
-        command.add("0:a?");
-
-        // Video ayarları
-        command.add("-c:v");
-        command.add("libx264");
-        command.add("-b:v");
-        command.add(quality.getVideoBitrateKbps() + "k");
-
-        // Ses ayarları
-        command.add("-c:a");
-        command.add("aac");
-        command.add("-b:a");
-        command.add(quality.getAudioBitrateKbps() + "k");
-
-        // Segment ayarları
-        command.add("-f");
-        command.add("segment");
-        command.add("-segment_time");
-        command.add(String.valueOf(defaultSegmentDuration));
-        command.add("-segment_format");
-        command.add("mpegts");
-        command.add("-segment_list_size");
-        command.add("0");
-        command.add("-segment_list_flags");
-        command.add("+live");
-
-        // Timestamp düzeltmeleri
-        command.add("-copyts");
-        command.add("-start_at_zero");
-
-        command.add(outputPattern.toString());
-
-        return command;
-    }
-
-
-    public void stopProcess(String streamId) {
-        StreamContext context = redisHelper.getContext(streamId);
-        if(context == null)
-            return;
-
-        Optional<ProcessHandle> optionalProcessHandle = ProcessHandle.of(context.getPId());
-        optionalProcessHandle.ifPresent(ProcessHandle::destroyForcibly);
-        log.info("FFmpeg process stopped for streamId: {}", streamId);
-
-    }
-}
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.model.AdvertisementInfo;
+import com.streameast.segmenter.model.StreamContext;
+import com.streameast.segmenter.model.enums.IngestOutputMode;
+import com.streameast.segmenter.model.enums.IngestProtocol;
+import com.streameast.segmenter.model.enums.VideoQuality;
+import com.streameast.segmenter.model.Watermark;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+@Slf4j
+@Service
+public class FFmpegService {
+
+    private static final Logger performanceLogger = LoggerFactory.getLogger("com.streameast.segmenter.performance");
+    private static final int PROBE_TIMEOUT_SECONDS = 15;
+    // A restart moves a larger ffmpeg log aside, so each stream keeps at most about twice this on disk
+    private static final long MAX_LOG_BYTES = 10 * 1024 * 1024;
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("segment_(\\d+)\\.ts");
+    private final AppSettings appSettings;
+    private final String ffmpegPath;
+    private final String ffprobePath;
+    private final Integer defaultSegmentDuration;
+    private final ThreadPoolTaskExecutor ffmpegStreamExecutor;
+    private final RedisHelper redisHelper;
+    private final FFmpegProgressMonitor progressMonitor;
+    private final StreamCapacityService capacityService;
+    private final CoreAllocationManager coreAllocationManager;
+    private final SegmentPipeline segmentPipeline;
+    private final Scte35CueService scte35CueService;
+    private final WatermarkAssetService watermarkAssetService;
+    private final AdvertisementService advertisementService;
+    private final PlaylistService playlistService;
+    private final Map<String, Process> processes = new ConcurrentHashMap<>();
+    private final Set<String> stopRequested = ConcurrentHashMap.newKeySet();
+    // Pulled streams supervised here; pushed ones can't be suspended, their encoder is connected to ffmpeg
+    private final Set<String> suspendable = ConcurrentHashMap.newKeySet();
+    // Completed when a suspended stream is resumed or stopped
+    private final Map<String, CompletableFuture<Void>> suspensions = new ConcurrentHashMap<>();
+
+    public FFmpegService(@Qualifier("ffmpegStreamExecutor") ThreadPoolTaskExecutor ffmpegStreamExecutor, AppSettings appConfig, RedisHelper redisHelper,
+                         FFmpegProgressMonitor progressMonitor, StreamCapacityService capacityService,
+                         CoreAllocationManager coreAllocationManager, SegmentPipeline segmentPipeline,
+                         Scte35CueService scte35CueService, WatermarkAssetService watermarkAssetService,
+                         AdvertisementService advertisementService, PlaylistService playlistService) {
+        this.ffmpegStreamExecutor = ffmpegStreamExecutor;
+        this.appSettings = appConfig;
+        this.ffmpegPath = appConfig.getRequiredServices().getFfmpeg();
+        this.ffprobePath = appConfig.getRequiredServices().getFfprobe();
+        this.defaultSegmentDuration = appConfig.getRequiredParams().getSegmentDuration();
+        this.redisHelper = redisHelper;
+        this.progressMonitor = progressMonitor;
+        this.capacityService = capacityService;
+        this.coreAllocationManager = coreAllocationManager;
+        this.segmentPipeline = segmentPipeline;
+        this.scte35CueService = scte35CueService;
+        this.watermarkAssetService = watermarkAssetService;
+        this.advertisementService = advertisementService;
+        this.playlistService = playlistService;
+    }
+
+    public CompletableFuture<Void> startStreamProcessing(String streamId, String streamUrl, Path outputPattern, VideoQuality quality, Watermark watermark) {
+        long startTime = System.currentTimeMillis();
+        StreamContext context = redisHelper.getContext(streamId);
+        if(context == null)
+            throw new RuntimeException("FFmpeg process failed because of context is null: " + streamId);
+
+        IngestProtocol ingestProtocol = context.getIngestProtocol();
+        stopRequested.remove(streamId);
+        return CompletableFuture.runAsync(() -> {
+            AppSettings.EncoderParams encoder = appSettings.getEncoder();
+            int restarts = 0;
+            boolean resumed = false;
+            if (ingestProtocol == null) {
+                suspendable.add(streamId);
+            }
+            try{
+
+                // Ensure output directory exists
+                Files.createDirectories(outputPattern.getParent());
+
+                // Pushed sources can't be probed before the encoder connects
+                OptionalInt cueStream = ingestProtocol == null && appSettings.getScte35().isEnabled()
+                        ? probeScte35Stream(streamUrl) : OptionalInt.empty();
+
+                // Supervise ffmpeg: a crashed encoder is restarted with backoff and continues the segment numbering
+                while (true) {
+                    // After a suspension this continues after the slate
+                    int startNumber = getNextSegmentNumber(streamId, outputPattern.getParent());
+                    if (restarts > 0 || resumed) {
+                        markDiscontinuity(streamId, startNumber);
+                    }
+
+                    long runStart = System.currentTimeMillis();
+                    int exitCode = runProcess(streamId, streamUrl, ingestProtocol, outputPattern, quality, watermark, startNumber, cueStream);
+                    CompletableFuture<Void> flushed = segmentPipeline.flush(streamId);
+
+                    resumed = awaitResume(streamId, outputPattern.getParent(), flushed);
+                    if (resumed) {
+                        restarts = 0;
+                        continue;
+                    }
+                    if (stopRequested.contains(streamId) || exitCode == 0 || exitCode == 255) { // 255 is for normal termination
+                        break;
+                    }
+                    performanceLogger.warn("FFmpeg stopped {} with exit code {}", streamId, exitCode);
+
+                    if (System.currentTimeMillis() - runStart > TimeUnit.SECONDS.toMillis(encoder.getStableRunSeconds())) {
+                        restarts = 0;
+                    }
+                    if (restarts >= encoder.getMaxRestarts()) {
+                        performanceLogger.error("FFmpeg restart limit {} reached for streamId: {}", encoder.getMaxRestarts(), streamId);
+                        break;
+                    }
+
+                    long backoffMs = Math.min(encoder.getRestartBackoffMaxMs(),
+                            encoder.getRestartBackoffInitialMs() * (1L << Math.min(restarts, 20)));
+                    restarts++;
+                    log.warn("Restarting FFmpeg for stream {} in {} ms (attempt {}/{})",
+                            streamId, backoffMs, restarts, encoder.getMaxRestarts());
+                    Thread.sleep(backoffMs);
+
+                    if (stopRequested.contains(streamId)) {
+                        break;
+                    }
+                }
+
+                long duration = System.currentTimeMillis() - startTime;
+                performanceLogger.info("FFmpeg process completed in {} ms for streamId: {}", duration, streamId);
+
+            } catch (Exception e) {
+                long duration = System.currentTimeMillis() - startTime;
+                performanceLogger.error("FFmpeg process failed in {} ms for streamId: {}", duration, streamId);
+                log.error("Error in FFmpeg processing: {}", e.getMessage());
+                throw new RuntimeException("Failed to process stream", e);
+            } finally {
+                stopRequested.remove(streamId);
+                suspendable.remove(streamId);
+                suspensions.remove(streamId);
+                coreAllocationManager.release(streamId);
+                redisHelper.updateContext(streamId, latest -> {
+                    latest.setProccessing(false);
+                    latest.setActive(false);
+                });
+            }
+
+        }, ffmpegStreamExecutor);
+    }
+
+    private int runProcess(String streamId, String streamUrl, IngestProtocol ingestProtocol, Path outputPattern,
+                           VideoQuality quality, Watermark watermark, int startNumber, OptionalInt cueStream) throws Exception {
+        Path watermarkAsset = watermarkAssetService.getAsset(watermark);
+        List<String> command = new ArrayList<>(coreAllocationManager.allocate(streamId, quality));
+        command.addAll(buildFFmpegCommand(streamId, streamUrl, ingestProtocol, outputPattern, quality, watermark,
+                watermarkAsset, startNumber));
+        SegmentTail cues = null;
+        if (cueStream.isPresent()) {
+            addCueOutput(command, cueStream.getAsInt(), scte35CueService.getCueFile(streamId));
+            cues = scte35CueService.start(streamId);
+        }
+        String commandLine = String.join(" ", command);
+        log.info("Starting FFmpeg process with command: {}",
+                ingestProtocol != null ? IngestPortPool.redact(commandLine) : commandLine);
+
+        // stdout carries -progress output, ffmpeg's own log goes to a per-stream file
+        Path logFile = getLogFile(streamId);
+        Files.createDirectories(logFile.getParent());
+        if (Files.exists(logFile) && Files.size(logFile) > MAX_LOG_BYTES) {
+            Files.move(logFile, getPreviousLogFile(streamId), StandardCopyOption.REPLACE_EXISTING);
+        }
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
+        pb.redirectError(ProcessBuilder.Redirect.appendTo(logFile.toFile()));
+        Process process;
+        try {
+            process = pb.start();
+        } catch (IOException e) {
+            if (cues != null) {
+                cues.complete();
+            }
+            throw e;
+        }
+        processes.put(streamId, process);
+        capacityService.attach(streamId, process.pid(), getWatermarkMode(watermark, watermarkAsset));
+        coreAllocationManager.attach(streamId, process.pid());
+
+        try {
+            redisHelper.updateContext(streamId, context -> {
+                context.setPId(process.pid());
+                context.setActive(true);
+                context.setProccessing(true);
+            });
+
+            progressMonitor.consume(streamId, process.getInputStream());
+            return process.waitFor();
+        } finally {
+            processes.remove(streamId, process);
+            progressMonitor.release(streamId);
+            if (cues != null) {
+                cues.complete();
+                Files.deleteIfExists(cues.getPath());
+            }
+        }
+    }
+
+    // Stops the encoder of a pulled stream until resume is called, the supervisor keeps the stream alive
+    public boolean suspend(String streamId) {
+        Process process = processes.get(streamId);
+        if (process == null || !suspendable.contains(streamId)
+                || suspensions.putIfAbsent(streamId, new CompletableFuture<>()) != null) {
+            return false;
+        }
+        capacityService.suspend(streamId);
+        redisHelper.updateContext(streamId, context -> context.setSuspended(true));
+        // SIGTERM lets ffmpeg close the segment it is writing
+        process.destroy();
+        return true;
+    }
+
+    public boolean resume(String streamId) {
+        CompletableFuture<Void> suspension = suspensions.get(streamId);
+        if (suspension == null || suspension.isDone() || !capacityService.resume(streamId)) {
+            return false;
+        }
+        redisHelper.updateContext(streamId, context -> context.setSuspended(false));
+        suspension.complete(null);
+        return true;
+    }
+
+    public boolean isSuspended(String streamId) {
+        CompletableFuture<Void> suspension = suspensions.get(streamId);
+        return suspension != null && !suspension.isDone();
+    }
+
+    public Set<String> getSuspendableStreamIds() {
+        return Set.copyOf(suspendable);
+    }
+
+    // Parks the supervisor of a suspended stream; true if it was resumed and ffmpeg has to start again
+    private boolean awaitResume(String streamId, Path outputDir, CompletableFuture<Void> flushed) throws Exception {
+        CompletableFuture<Void> suspension = suspensions.get(streamId);
+        if (suspension == null) {
+            return false;
+        }
+        log.info("Encoder of stream {} suspended, waiting for viewers", streamId);
+        publishSlate(streamId, outputDir, flushed, suspension);
+        suspension.get();
+        suspensions.remove(streamId, suspension);
+        return !stopRequested.contains(streamId);
+    }
+
+    // ffmpeg has exited, so the slate goes after every segment it wrote. Waits for those segments to be
+    // published and the slate to be prepared unless the stream is resumed first; a segment published
+    // after the slate would land in the middle of the window.
+    private void publishSlate(String streamId, Path outputDir, CompletableFuture<Void> flushed,
+                              CompletableFuture<Void> suspension) {
+        StreamContext context = redisHelper.getContext(streamId);
+        if (context == null || context.getVideoQuality() == null) {
+            return;
+        }
+        CompletableFuture<AdvertisementInfo> slate = advertisementService.prepareSlate(context.getVideoQuality(), context.getStorageTypes());
+        try {
+            CompletableFuture.anyOf(CompletableFuture.allOf(slate, flushed), suspension).join();
+        } catch (Exception e) {
+            log.warn("No slate for suspended stream {}: {}", streamId, e.getMessage());
+            return;
+        }
+        if (!suspension.isDone()) {
+            playlistService.publishSlate(streamId, getNextSegmentNumber(streamId, outputDir), slate.join());
+        }
+    }
+
+    private int getNextSegmentNumber(String streamId, Path outputDir) {
+        int last = -1;
+        StreamContext context = redisHelper.getContext(streamId);
+        if (context != null && !context.getStreamSequences().isEmpty()) {
+            last = context.getStreamSequences().last();
+        }
+
+        // Segments written or sent by a previous run may not be published yet, never overwrite them
+        last = Math.max(last, segmentPipeline.getLastReceived(streamId));
+        try (var files = Files.list(outputDir)) {
+            last = Math.max(last, files.map(path -> SEGMENT_PATTERN.matcher(path.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .mapToInt(matcher -> Integer.parseInt(matcher.group(1)))
+                    .max()
+                    .orElse(-1));
+        } catch (IOException e) {
+            log.warn("Failed to list segments in {}: {}", outputDir, e.getMessage());
+        }
+        return last + 1;
+    }
+
+    // Tags the encoder cpu samples, so pre-rendered and filter drawn watermarks can be compared
+    private static String getWatermarkMode(Watermark watermark, Path watermarkAsset) {
+        if (watermarkAsset != null) {
+            return "prerendered";
+        }
+        if (watermark == null || (StringUtils.isEmpty(watermark.getImagePath()) && StringUtils.isEmpty(watermark.getText()))) {
+            return "none";
+        }
+        return StringUtils.isNotEmpty(watermark.getImagePath()) ? "image-filter" : "drawtext";
+    }
+
+    private void markDiscontinuity(String streamId, int sequence) {
+        redisHelper.updateContext(streamId, context -> context.addDiscontinuity(sequence));
+    }
+
+    private List<String> buildFFmpegCommand(String streamId, String streamUrl, IngestProtocol ingestProtocol, Path outputPattern,
+                                            VideoQuality quality, Watermark watermark, Path watermarkAsset, int startNumber) {
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath);
+        command.add("-nostdin");
+        command.add("-loglevel");
+        command.add("warning");
+        command.add("-nostats");
+        command.add("-progress");
+        command.add("pipe:1");
+
+        if (ingestProtocol == IngestProtocol.RTMP) {
+            // Wait for the encoder to connect instead of pulling
+            command.add("-listen");
+            command.add("1");
+        } else if (ingestProtocol == null) {
+            // HLS için gerekli input ayarları
+            command.add("-live_start_index");
+            command.add("-1");
+        }
+        command.add("-i");
+        command.add(streamUrl);
+
+        StringBuilder filterChain = new StringBuilder();
+
+        if (watermarkAsset != null) {
+            // Scaled, tinted and faded ahead of time, the image only needs to be overlaid
+            command.add("-i");
+            command.add(watermarkAsset.toString());
+
+            filterChain.append("[0:v]setpts=PTS-STARTPTS,")
+                    .append("select='not(mod(n\\,2))'[filtered];")
+                    .append("[filtered][1:v]overlay=")
+                    .append(watermark.getX()).append(":").append(watermark.getY())
+                    .append("[outv]");
+        } else if (watermark != null && StringUtils.isNotEmpty(watermark.getImagePath())) {
+            command.add("-i");
+            command.add(watermark.getImagePath());
+
+            filterChain.append("[0:v]setpts=PTS-STARTPTS,")  // Timestamp'leri sıfırla
+                    .append("select='not(mod(n\\,2))'[filtered];")
+                    .append("[1:v]scale=-1:").append(watermark.getSize())
+                    .append(",format=rgba,colorchannelmixer=aa=").append(watermark.getOpacity())
+                    .append("[watermark];")
+                    .append("[filtered][watermark]overlay=")
+                    .append(watermark.getX()).append(":").append(watermark.getY())
+                    .append("[outv]");
+        } else if (watermark != null && StringUtils.isNotEmpty(watermark.getText())) {
+            filterChain.append("[0:v]setpts=PTS-STARTPTS,")  // Timestamp'leri sıfırla
+                    .append("select='not(mod(n\\,2))',")
+                    .append("drawtext=text='").append(watermark.getText())
+                    .append("':fontsize=").append(watermark.getSize())
+                    .append(":fontcolor=").append(watermark.getColor())
+                    .append("@").append(watermark.getOpacity())
+                    .append(":x=").append(watermark.getX())
+                    .append(":y=").append(watermark.getY())
+                    .append("[outv]");
+        } else {
+            filterChain.append("[0:v]setpts=PTS-STARTPTS,select='not(mod(n\\,2))'[outv]");
+        }
+
+        command.add("-filter_complex");
+        command.add(filterChain.toString());
+
+        command.add("-map");
+        command.add("[outv]");
+        command.add("-map");
+        command.add("0:a?");
+
+        // Video ayarları
+        command.add("-c:v");
+        command.add("libx264");
+        command.add("-threads");
+        command.add(String.valueOf(coreAllocationManager.getThreads(quality)));
+        command.add("-b:v");
+        command.add(quality.getVideoBitrateKbps() + "k");
+        // Keyframes on the segment grid, so every segment boundary is an exact multiple of the
+        // segment duration and SCTE-35 breaks snap to a boundary
+        command.add("-force_key_frames");
+        command.add("expr:gte(t,n_forced*" + defaultSegmentDuration + ")");
+
+        // Ses ayarları
+        command.add("-c:a");
+        command.add("aac");
+        command.add("-b:a");
+        command.add(quality.getAudioBitrateKbps() + "k");
+
+        // Timestamp düzeltmeleri
+        command.add("-copyts");
+        command.add("-start_at_zero");
+
+        if (appSettings.getIngest().getOutputMode() == IngestOutputMode.HTTP_PUT) {
+            addHttpPutOutput(command, streamId, startNumber);
+            return command;
+        }
+
+        // Segment ayarları
+        command.add("-f");
+        command.add("segment");
+        command.add("-segment_time");
+        command.add(String.valueOf(defaultSegmentDuration));
+        command.add("-segment_format");
+        command.add("mpegts");
+        command.add("-segment_list_size");
+        command.add("0");
+        command.add("-segment_list_flags");
+        command.add("+live");
+        command.add("-segment_start_number");
+        command.add(String.valueOf(startNumber));
+
+        command.add(outputPattern.toString());
+
+        return command;
+    }
+
+    // The HLS muxer PUTs each segment to the ingest endpoint in one request, so a segment is complete
+    // when its request ends. The playlist it also PUTs is ignored, playlists are rendered from Redis.
+    private void addHttpPutOutput(List<String> command, String streamId, int startNumber) {
+        String ingestUrl = appSettings.getIngest().getEndpoint() + "/ingest/" + streamId;
+        command.add("-f");
+        command.add("hls");
+        command.add("-hls_time");
+        command.add(String.valueOf(defaultSegmentDuration));
+        command.add("-hls_list_size");
+        command.add("1");
+        command.add("-hls_flags");
+        command.add("omit_endlist");
+        command.add("-start_number");
+        command.add(String.valueOf(startNumber));
+        command.add("-method");
+        command.add("PUT");
+        command.add("-http_persistent");
+        command.add("1");
+        // A failed PUT drops that segment instead of stopping the encoder
+        command.add("-ignore_io_errors");
+        command.add("1");
+        command.add("-hls_segment_filename");
+        command.add(ingestUrl + "/segment_%d.ts");
+        command.add(ingestUrl + "/playlist.m3u8");
+    }
+
+    // Second output: the SCTE-35 stream's packets copied unchanged, one splice_info_section each
+    private void addCueOutput(List<String> command, int streamIndex, Path cueFile) {
+        command.add("-map");
+        command.add("0:" + streamIndex);
+        command.add("-c");
+        command.add("copy");
+        command.add("-flush_packets");
+        command.add("1");
+        command.add("-f");
+        command.add("data");
+        command.add("-y");
+        command.add(cueFile.toString());
+    }
+
+
+    public boolean probeSource(String streamUrl) {
+        long startTime = System.currentTimeMillis();
+        boolean hasVideo = probe(streamUrl, "stream=codec_type")
+                .map(output -> output.contains("video"))
+                .orElse(false);
+        performanceLogger.info("Source probe completed in {} ms for {} (video: {})",
+                System.currentTimeMillis() - startTime, streamUrl, hasVideo);
+        return hasVideo;
+    }
+
+    // Index of the source's SCTE-35 data stream
+    private OptionalInt probeScte35Stream(String streamUrl) {
+        return probe(streamUrl, "stream=index,codec_name")
+                .flatMap(output -> output.lines()
+                        .map(line -> line.trim().split(","))
+                        .filter(fields -> fields.length == 2 && fields[1].equals("scte_35"))
+                        .map(fields -> Integer.parseInt(fields[0]))
+                        .findFirst())
+                .map(OptionalInt::of)
+                .orElse(OptionalInt.empty());
+    }
+
+    // ffprobe's csv output for the entries, empty if the source couldn't be probed
+    private Optional<String> probe(String streamUrl, String entries) {
+        try {
+            List<String> command = List.of(ffprobePath,
+                    "-v", "error",
+                    "-rw_timeout", String.valueOf(TimeUnit.SECONDS.toMicros(PROBE_TIMEOUT_SECONDS)),
+                    "-show_entries", entries,
+                    "-of", "csv=p=0",
+                    streamUrl);
+
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .start();
+            // Read on another thread, a source that stalls ffprobe must not block us past the timeout
+            CompletableFuture<String> output = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return new String(process.getInputStream().readAllBytes());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            if (!process.waitFor(PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                log.warn("Probe timed out for source: {}", streamUrl);
+                return Optional.empty();
+            }
+            return process.exitValue() == 0 ? Optional.of(output.join()) : Optional.empty();
+        } catch (Exception e) {
+            log.warn("Probe failed for source {}: {}", streamUrl, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public void stopProcess(String streamId) {
+        StreamContext context = redisHelper.getContext(streamId);
+        if(context == null)
+            return;
+
+        stopRequested.add(streamId);
+        CompletableFuture<Void> suspension = suspensions.get(streamId);
+        if (suspension != null) {
+            suspension.complete(null);
+        }
+        Process process = processes.get(streamId);
+        if (process != null) {
+            process.destroyForcibly();
+        } else {
+            Optional<ProcessHandle> optionalProcessHandle = ProcessHandle.of(context.getPId());
+            optionalProcessHandle.ifPresent(ProcessHandle::destroyForcibly);
+        }
+        log.info("FFmpeg process stopped for streamId: {}", streamId);
+
+    }
+
+    public void deleteLog(String streamId) {
+        for (Path logFile : List.of(getLogFile(streamId), getPreviousLogFile(streamId))) {
+            try {
+                Files.deleteIfExists(logFile);
+            } catch (IOException e) {
+                log.warn("Failed to delete FFmpeg log {}: {}", logFile, e.getMessage());
+            }
+        }
+    }
+
+    private Path getLogFile(String streamId) {
+        return appSettings.resolvePath("logs", streamId + ".log");
+    }
+
+    private Path getPreviousLogFile(String streamId) {
+        return appSettings.resolvePath("logs", streamId + ".log.1");
+    }
+}
@@ -0,0 +1,110 @@
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.model.enums.IngestProtocol;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.ServerSocket;
+import java.security.SecureRandom;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Ports ffmpeg listens on for pushed streams. A port stays with its stream until the stream stops,
+// so an encoder restarted by the supervisor listens on the same address again. Each stream gets a
+// secret the encoder must present: the SRT passphrase, or the RTMP app ffmpeg's listener matches.
+@Slf4j
+@Service
+public class IngestPortPool {
+
+    private static final Pattern SECRET = Pattern.compile("(passphrase=)[^&\\s]+|(rtmp://[^/\\s]+/)[^/\\s]+");
+
+    private final AppSettings.IngestParams ingest;
+    private final SecureRandom random = new SecureRandom();
+    private final BitSet used = new BitSet();
+    private final Map<String, Allocation> allocations = new HashMap<>();
+
+    public IngestPortPool(AppSettings appSettings) {
+        this.ingest = appSettings.getIngest();
+    }
+
+    public synchronized IngestEndpoint allocate(String streamId, IngestProtocol protocol) {
+        Allocation allocated = allocations.get(streamId);
+        if (allocated != null) {
+            return endpoint(streamId, protocol, allocated);
+        }
+
+        int size = ingest.getPushPortEnd() - ingest.getPushPortStart() + 1;
+        for (int index = used.nextClearBit(0); index < size; index = used.nextClearBit(index + 1)) {
+            int port = ingest.getPushPortStart() + index;
+            // Ports taken by other processes are skipped but stay free in the pool for later attempts
+            if (!isBindable(port, protocol)) {
+                continue;
+            }
+            used.set(index);
+            byte[] secret = new byte[16];
+            random.nextBytes(secret);
+            Allocation allocation = new Allocation(port, HexFormat.of().formatHex(secret));
+            allocations.put(streamId, allocation);
+            log.info("Allocated {} ingest port {} to stream {}", protocol, port, streamId);
+            return endpoint(streamId, protocol, allocation);
+        }
+        throw new CapacityExceededException("No free ingest port in " + ingest.getPushPortStart() + "-" + ingest.getPushPortEnd(), null);
+    }
+
+    public synchronized void release(String streamId) {
+        Allocation allocation = allocations.remove(streamId);
+        if (allocation != null) {
+            used.clear(allocation.port() - ingest.getPushPortStart());
+            log.info("Released ingest port {} of stream {}", allocation.port(), streamId);
+        }
+    }
+
+    // Masks the secret of ingest urls, for anything stored or logged
+    public static String redact(String text) {
+        return SECRET.matcher(text).replaceAll(match -> Matcher.quoteReplacement(
+                (match.group(1) != null ? match.group(1) : match.group(2)) + "***"));
+    }
+
+    private IngestEndpoint endpoint(String streamId, IngestProtocol protocol, Allocation allocation) {
+        int port = allocation.port();
+        if (protocol == IngestProtocol.SRT) {
+            // SRT needs 10 to 79 characters, the hex secret has 32
+            String passphrase = "passphrase=" + allocation.secret();
+            return new IngestEndpoint(port,
+                    "srt://0.0.0.0:" + port + "?mode=listener&" + passphrase,
+                    "srt://" + ingest.getPushHost() + ":" + port + "?" + passphrase);
+        }
+        String path = "/" + allocation.secret() + "/" + streamId;
+        return new IngestEndpoint(port,
+                "rtmp://0.0.0.0:" + port + path,
+                "rtmp://" + ingest.getPushHost() + ":" + port + path);
+    }
+
+    // SRT runs over UDP, RTMP over TCP
+    private boolean isBindable(int port, IngestProtocol protocol) {
+        try {
+            if (protocol == IngestProtocol.SRT) {
+                new DatagramSocket(port).close();
+            } else {
+                new ServerSocket(port).close();
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // listenUrl is ffmpeg's input, publicUrl is what the encoder pushes to; both carry the secret
+    public record IngestEndpoint(int port, String listenUrl, String publicUrl) {
+    }
+
+    private record Allocation(int port, String secret) {
+    }
+}
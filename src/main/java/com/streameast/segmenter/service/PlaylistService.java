@@ -2,84 +2,328 @@ package com.streameast.segmenter.service;
 
 import com.streameast.segmenter.config.AppSettings;
 import com.streameast.segmenter.model.AdvertisementInfo;
+import com.streameast.segmenter.model.AdvertisementSchedule;
+import com.streameast.segmenter.model.SequenceWindow;
 import com.streameast.segmenter.model.StreamContext;
+import com.streameast.segmenter.model.enums.VideoQuality;
 import com.streameast.segmenter.service.impl.StorageServiceFactory;
+import com.streameast.segmenter.util.AppConstants;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 public class PlaylistService {
 
+    private static final long UNKNOWN_STREAM_TTL_MS = 2000;
+    private static final int MAX_UNKNOWN_STREAMS = 10_000;
+    // Players start three target durations from the live edge, so a joining player has the whole slate to play
+    private static final int SLATE_SEGMENTS = 3;
+
     private final AppSettings appSettings;
     private final StorageServiceFactory storageServiceFactory;
     private final ThreadPoolTaskExecutor playlistTaskExecutor;
     private final RedisHelper redisHelper;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RemoteSegmentJanitor remoteSegmentJanitor;
+    private final DvrService dvrService;
+    // Local copy of every playlist this node was asked for, kept current by segment events
+    private final Map<String, PlaylistReplica> replicas = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    // Redis reads of request threads in flight, and stream ids Redis didn't know until the given time
+    private final Map<String, CompletableFuture<PlaylistReplica>> loads = new ConcurrentHashMap<>();
+    private final Map<String, Long> unknownStreams = new ConcurrentHashMap<>();
 
     public PlaylistService(@Qualifier("playlistTaskExecutor") ThreadPoolTaskExecutor playlistTaskExecutor,
-                           StorageServiceFactory storageServiceFactory, RedisHelper redisHelper, AppSettings appSettings) {
+                           StorageServiceFactory storageServiceFactory, RedisHelper redisHelper, AppSettings appSettings,
+                           StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer,
+                           RemoteSegmentJanitor remoteSegmentJanitor, DvrService dvrService) {
         this.storageServiceFactory = storageServiceFactory;
         this.playlistTaskExecutor = playlistTaskExecutor;
         this.redisHelper = redisHelper;
         this.appSettings = appSettings;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.remoteSegmentJanitor = remoteSegmentJanitor;
+        this.dvrService = dvrService;
+
+        listenerContainer.addMessageListener(
+                (message, pattern) -> onSegmentEvent(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(AppConstants.SEGMENT_EVENTS_CHANNEL));
     }
 
-    public String getPlaylistContent(String streamId, String storageType) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                StreamContext context = redisHelper.getContext(streamId);
-                if (context == null) {
-                    return generateEmptyPlaylist(0);
-                }
+    // Present only if the stream is known and publishes the storage type; a stream without
+    // segments yet gets an empty playlist
+    public Optional<String> findPlaylistContent(String streamId, String storageType) {
+        try {
+            PlaylistReplica replica = getReplica(streamId);
+            if (replica == null || !replica.storageTypes.contains(storageType.toLowerCase())) {
+                return Optional.empty();
+            }
+            String content = replica.playlists.get(storageType.toLowerCase());
+            return Optional.of(content != null ? content : generateEmptyPlaylist(0));
+        } catch (Exception e) {
+            log.error("Failed to get playlist content for stream {}, storage: {}",
+                    streamId, storageType, e);
+            return Optional.empty();
+        }
+    }
 
-                String content = context.getPlaylistContent(storageType);
-                return content != null ? content : generateEmptyPlaylist(0);
-            } catch (Exception e) {
-                log.error("Failed to get playlist content for stream {}, storage: {}",
-                        streamId, storageType, e);
-                return generateEmptyPlaylist(0);
+    public String getEmptyPlaylist() {
+        return generateEmptyPlaylist(0);
+    }
+
+    // Advertises the stream's rendition whether its encoder runs or is suspended, so players
+    // keep requesting the media playlist and their requests resume it
+    public Optional<String> getMasterPlaylist(String streamId, String storageType) {
+        PlaylistReplica replica;
+        try {
+            replica = getReplica(streamId);
+        } catch (Exception e) {
+            log.error("Failed to get master playlist for stream {}, storage: {}", streamId, storageType, e);
+            return Optional.empty();
+        }
+        if (replica == null || !replica.storageTypes.contains(storageType.toLowerCase())) {
+            return Optional.empty();
+        }
+
+        VideoQuality quality = replica.videoQuality;
+        long bandwidth = (quality.getVideoBitrateKbps() + quality.getAudioBitrateKbps()) * 1000;
+        return Optional.of("#EXTM3U\n"
+                + "#EXT-X-VERSION:3\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=" + bandwidth + ",RESOLUTION=" + quality.getResolution() + "\n"
+                + "playlist.m3u8\n");
+    }
+
+    // Called by the stream's pipeline actor, the only local writer for the stream; Redis WATCH covers
+    // writers on other nodes. All sequences go out in one update and one playlist render.
+    // The stream actor keeps the context it last stored and passes it back in. While no one else wrote
+    // the context meanwhile, the batch is applied to that copy and stored with one version-checked SET
+    // instead of a WATCH/GET/MULTI round trip per batch. Returns the stored context for the next batch,
+    // or null if the stream is unknown.
+    public RedisHelper.VersionedContext publishSegments(String streamId, List<Integer> sequences,
+                                                        RedisHelper.VersionedContext cached) {
+        int maxSegments = appSettings.getRequiredParams().getMaxSegmentsInPlaylist();
+        // Range of segments whose remote copies expired with this update, from the attempt that got stored
+        int[] expired = new int[2];
+        Consumer<StreamContext> update = current -> {
+            sequences.forEach(sequence -> current.addSequence(sequence, maxSegments));
+            updatePlaylist(current);
+            expired[0] = current.getRemoteRetainedFrom();
+            expired[1] = remoteSegmentJanitor.advance(current);
+        };
+
+        RedisHelper.VersionedContext stored = null;
+        if (cached != null) {
+            update.accept(cached.context());
+            long version = redisHelper.setContextIfVersion(streamId, cached.context(), cached.version());
+            if (version >= 0) {
+                stored = new RedisHelper.VersionedContext(cached.context(), version);
+            }
+        }
+        if (stored == null) {
+            // First batch, or the context was changed elsewhere: the cached copy is stale
+            stored = redisHelper.updateVersionedContext(streamId, update);
+        }
+        if (stored == null) {
+            log.warn("Dropped {} segments for unknown stream {}", sequences.size(), streamId);
+            return null;
+        }
+        StreamContext context = stored.context();
+        if (sequences.size() > 1) {
+            log.debug("Published {} segments for stream {} in one update", sequences.size(), streamId);
+        }
+        remoteSegmentJanitor.delete(context, expired[0], expired[1]);
+        dvrService.record(context, sequences);
+
+        PlaylistReplica replica = storeReplica(streamId, context);
+        notifyNodes(streamId, replica.lastSequence);
+        return stored;
+    }
+
+    // Repeats the slate after the last segment of a suspended stream. Its sequences are part of the window
+    // like any segment, so media and discontinuity sequences continue across the suspension, and players
+    // have a few segments to play while the resumed encoder starts.
+    public void publishSlate(String streamId, int firstSequence, AdvertisementInfo slate) {
+        int maxSegments = appSettings.getRequiredParams().getMaxSegmentsInPlaylist();
+        int[] expired = new int[2];
+        StreamContext context = redisHelper.updateContext(streamId, current -> {
+            for (int sequence = firstSequence; sequence < firstSequence + SLATE_SEGMENTS; sequence++) {
+                current.addSequence(sequence, maxSegments);
+                current.addAdvertisement(sequence, slate);
             }
-        }, playlistTaskExecutor).join();
+            updatePlaylist(current);
+            expired[0] = current.getRemoteRetainedFrom();
+            expired[1] = remoteSegmentJanitor.advance(current);
+        });
+        if (context == null) {
+            return;
+        }
+        remoteSegmentJanitor.delete(context, expired[0], expired[1]);
+
+        // The DVR window keeps live segments only, the resumed encoder's first one starts a discontinuity
+        PlaylistReplica replica = storeReplica(streamId, context);
+        notifyNodes(streamId, replica.lastSequence);
     }
 
-    public void addSegment(String streamId, String segmentName) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                int sequence = extractSequenceNumber(segmentName);
-                StreamContext context = redisHelper.getContext(streamId);
+    // Drops the replica on every node and the DVR window, the stream is gone
+    public void removeStream(String streamId) {
+        replicas.remove(streamId);
+        dvrService.removeStream(streamId);
+        notifyNodes(streamId, -1);
+    }
 
-                if (context != null) {
-                    context.addSequence(sequence, appSettings.getRequiredParams().getMaxSegmentsInPlaylist());
-                    updatePlaylist(context);
-                    redisHelper.saveContext(streamId, context);
-                }
+    private void notifyNodes(String streamId, int sequence) {
+        try {
+            stringRedisTemplate.convertAndSend(AppConstants.SEGMENT_EVENTS_CHANNEL, streamId + ":" + sequence);
+        } catch (Exception e) {
+            log.warn("Failed to send segment event for stream {}: {}", streamId, e.getMessage());
+        }
+    }
+
+    private void onSegmentEvent(String event) {
+        int separator = event.lastIndexOf(':');
+        if (separator <= 0) {
+            return;
+        }
+        String streamId = event.substring(0, separator);
+        int sequence = Integer.parseInt(event.substring(separator + 1));
+        if (sequence < 0) {
+            replicas.remove(streamId);
+            return;
+        }
+
+        // Streams nobody asked this node for stay unloaded, the first request takes a snapshot
+        PlaylistReplica replica = replicas.get(streamId);
+        if (replica == null || replica.lastSequence >= sequence || !refreshing.add(streamId)) {
+            return;
+        }
+        playlistTaskExecutor.execute(() -> {
+            try {
+                loadReplica(streamId);
             } catch (Exception e) {
-                log.error("Failed to add segment {} for stream {}", segmentName, streamId, e);
+                log.warn("Failed to refresh playlist replica for stream {}: {}", streamId, e.getMessage());
+            } finally {
+                refreshing.remove(streamId);
+            }
+        });
+    }
+
+    // Request path: concurrent misses for a stream share one Redis read, while an expired replica is
+    // refreshed the other requests keep getting it. Unknown ids are remembered for a moment so
+    // polls for a stopped stream don't all reach Redis.
+    private PlaylistReplica getReplica(String streamId) {
+        PlaylistReplica replica = replicas.get(streamId);
+        if (replica != null && !replica.isExpired(getReplicaMaxAgeMs())) {
+            return replica;
+        }
+
+        long now = System.currentTimeMillis();
+        Long unknownUntil = unknownStreams.get(streamId);
+        if (unknownUntil != null) {
+            if (now < unknownUntil) {
+                return null;
+            }
+            unknownStreams.remove(streamId, unknownUntil);
+        }
+
+        CompletableFuture<PlaylistReplica> load = new CompletableFuture<>();
+        CompletableFuture<PlaylistReplica> inFlight = loads.putIfAbsent(streamId, load);
+        if (inFlight != null) {
+            return replica != null ? replica : join(inFlight);
+        }
+
+        try {
+            PlaylistReplica loaded = loadReplica(streamId);
+            if (loaded == null) {
+                rememberUnknown(streamId, now);
             }
-        }, playlistTaskExecutor);
+            load.complete(loaded);
+            return loaded;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(streamId, load);
+        }
+    }
+
+    // Requests sharing a load fail with the leader's exception, like a single miss would
+    private static PlaylistReplica join(CompletableFuture<PlaylistReplica> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void rememberUnknown(String streamId, long now) {
+        if (unknownStreams.size() >= MAX_UNKNOWN_STREAMS) {
+            unknownStreams.values().removeIf(until -> until <= now);
+        }
+        if (unknownStreams.size() < MAX_UNKNOWN_STREAMS) {
+            unknownStreams.put(streamId, now + UNKNOWN_STREAM_TTL_MS);
+        }
+    }
+
+    // Snapshot from Redis: first request on this node, late joining nodes, or after missed events
+    private PlaylistReplica loadReplica(String streamId) {
+        StreamContext context = redisHelper.getContext(streamId);
+        if (context == null) {
+            replicas.remove(streamId);
+            return null;
+        }
+        return storeReplica(streamId, context);
+    }
+
+    private PlaylistReplica storeReplica(String streamId, StreamContext context) {
+        unknownStreams.remove(streamId);
+        PlaylistReplica candidate = new PlaylistReplica(context);
+        // A slow snapshot must not replace a newer replica
+        return replicas.merge(streamId, candidate,
+                (current, loaded) -> loaded.lastSequence >= current.lastSequence ? loaded : current.touch());
+    }
+
+    // Pub/sub is fire and forget; without events for two segments the replica is re-read from Redis
+    private long getReplicaMaxAgeMs() {
+        return appSettings.getRequiredParams().getSegmentDuration() * 2000L;
     }
 
     private void updatePlaylist(StreamContext context) {
         try {
-            if (context.getStreamSequences().isEmpty()) return;
+            SequenceWindow sequences = context.getStreamSequences();
+            if (sequences.isEmpty()) return;
 
-            int mediaSequence = context.getFirstSequence();
+            int firstSequence = context.getFirstSequence();
+            int discontinuitySequence = context.slideDiscontinuities(firstSequence);
             List<StorageService> services = storageServiceFactory.getStorageServices(context.getStorageTypes());
-            Map<Integer, AdvertisementInfo> advertisements = context.getAdvertisements();
+            AdvertisementSchedule advertisements = context.getAdvertisements();
+            int segmentDuration = appSettings.getRequiredParams().getSegmentDuration();
+            // Slates of past suspensions and ads that slid out of the window would pile up in the context
+            int mediaSequence = context.slideAdvertisements(firstSequence, segmentDuration);
 
-            int maxDuration = appSettings.getRequiredParams().getSegmentDuration();
-            for (AdvertisementInfo adInfo : advertisements.values()) {
-                maxDuration = Math.max(maxDuration,
-                        Math.min(appSettings.getRequiredParams().getSegmentDuration(), adInfo.getDuration()));
+            int maxDuration = segmentDuration;
+            for (int i = 0; i < advertisements.size(); i++) {
+                maxDuration = Math.max(maxDuration, Math.min(segmentDuration, advertisements.valueAt(i).getDuration()));
             }
 
             for (StorageService service : services) {
@@ -88,36 +332,56 @@ public class PlaylistService {
                         .append("#EXT-X-VERSION:3\n")
                         .append("#EXT-X-TARGETDURATION:").append(maxDuration).append("\n")
                         .append("#EXT-X-MEDIA-SEQUENCE:").append(mediaSequence).append("\n")
-                        .append("#EXT-X-DISCONTINUITY-SEQUENCE:0\n");
+                        .append("#EXT-X-DISCONTINUITY-SEQUENCE:").append(discontinuitySequence).append("\n");
+
+                int previousSequence = firstSequence - 1;
+                // End (exclusive) of the cue break the live segments are in, -1 outside of one
+                int cueEnd = -1;
+                for (int i = 0; i < sequences.size(); i++) {
+                    int sequence = sequences.get(i);
+                    boolean discontinuity = context.hasDiscontinuity(previousSequence, sequence);
+                    previousSequence = sequence;
+                    AdvertisementInfo adInfo = advertisements.isEmpty() ? null : advertisements.get(sequence);
+
+                    if (cueEnd >= 0 && sequence >= cueEnd) {
+                        playlist.append("#EXT-X-CUE-IN\n");
+                        cueEnd = -1;
+                    }
+                    if (i == 0 && adInfo == null) {
+                        cueEnd = appendCueContinuation(playlist, advertisements, sequence, segmentDuration);
+                    }
 
-                boolean wasAdvertisement = false;
-                for (Integer sequence : context.getStreamSequences()) {
-                    AdvertisementInfo adInfo = advertisements.get(sequence);
+                    if (adInfo != null && adInfo.isCueBreak()) {
+                        if (adInfo.getDuration() > 0) {
+                            playlist.append("#EXT-X-CUE-OUT:").append(adInfo.getDuration()).append("\n");
+                            cueEnd = sequence + adInfo.segmentsCovered(segmentDuration);
+                        }
+                        adInfo = null;
+                    }
 
+                    if (discontinuity) {
+                        playlist.append("#EXT-X-DISCONTINUITY\n");
+                    }
                     if (adInfo != null && !adInfo.getSegmentNames().isEmpty()) {
-                        if (!wasAdvertisement) {
-                            playlist.append("#EXT-X-DISCONTINUITY\n");
+                        if (!adInfo.isSlate()) {
+                            playlist.append("#EXT-X-CUE-OUT:").append(adInfo.getDuration()).append("\n");
                         }
 
-                        for (String segmentName : adInfo.getSegmentNames()) {
-                            int segmentDuration = Math.min(
-                                    appSettings.getRequiredParams().getSegmentDuration(),
-                                    adInfo.getDuration() - (adInfo.getSegmentNames().indexOf(segmentName) *
-                                            appSettings.getRequiredParams().getSegmentDuration())
-                            );
+                        List<String> segmentNames = adInfo.getSegmentNames();
+                        String adOwner = adInfo.getPath() != null ? adInfo.getPath() : context.getId();
+                        for (int index = 0; index < segmentNames.size(); index++) {
+                            int adSegmentDuration = Math.min(segmentDuration, adInfo.getDuration() - index * segmentDuration);
 
-                            playlist.append("#EXTINF:").append(segmentDuration).append(".0,\n")
-                                    .append(service.getSegmentUrl(context.getId(), segmentName)).append("\n");
+                            playlist.append("#EXTINF:").append(adSegmentDuration).append(".0,\n")
+                                    .append(service.getSegmentUrl(adOwner, segmentNames.get(index))).append("\n");
                         }
-                        wasAdvertisement = true;
-                    } else {
-                        if (wasAdvertisement) {
-                            playlist.append("#EXT-X-DISCONTINUITY\n");
+                        if (!adInfo.isSlate()) {
+                            playlist.append("#EXT-X-CUE-IN\n");
                         }
-                        String segmentName = String.format("segment_%d.ts", sequence);
-                        playlist.append("#EXTINF:").append(appSettings.getRequiredParams().getSegmentDuration()).append(".0,\n")
+                    } else {
+                        String segmentName = "segment_" + sequence + ".ts";
+                        playlist.append("#EXTINF:").append(segmentDuration).append(".0,\n")
                                 .append(service.getSegmentUrl(context.getId(), segmentName)).append("\n");
-                        wasAdvertisement = false;
                     }
                 }
 
@@ -128,6 +392,23 @@ public class PlaylistService {
         }
     }
 
+    // A cue break that started before the window is announced again for players joining mid-break
+    private int appendCueContinuation(StringBuilder playlist, AdvertisementSchedule advertisements, int sequence, int segmentDuration) {
+        int index = advertisements.floorIndex(sequence);
+        if (index < 0) {
+            return -1;
+        }
+        int start = advertisements.keyAt(index);
+        AdvertisementInfo adInfo = advertisements.valueAt(index);
+        int end = start + adInfo.segmentsCovered(segmentDuration);
+        if (!adInfo.isCueBreak() || end <= sequence) {
+            return -1;
+        }
+        playlist.append("#EXT-X-CUE-OUT-CONT:ElapsedTime=").append((sequence - start) * segmentDuration)
+                .append(",Duration=").append(adInfo.getDuration()).append("\n");
+        return end;
+    }
+
     private String generateEmptyPlaylist(int mediaSequence) {
         return String.format("""
             #EXTM3U
@@ -137,18 +418,28 @@ public class PlaylistService {
             """, appSettings.getRequiredParams().getSegmentDuration(), mediaSequence);
     }
 
-    private int extractSequenceNumber(String segmentName) {
-        try {
-            // Use regex to match either "segment_" or "advertisement_" followed by a sequence of digits
-            Matcher matcher = Pattern.compile("(segment|advertisement)_(\\d+)").matcher(segmentName);
-            if (matcher.find()) {
-                return Integer.parseInt(matcher.group(2)); // group(2) captures the sequence number
-            }
-            log.warn("No sequence number found in segment name: {}", segmentName);
-            return 0;
-        } catch (Exception e) {
-            log.warn("Failed to extract sequence number from segment name: {}", segmentName, e);
-            return 0;
+    private static class PlaylistReplica {
+        private final Map<String, String> playlists;
+        private final int lastSequence;
+        private final Set<String> storageTypes;
+        private final VideoQuality videoQuality;
+        private volatile long refreshedAt = System.currentTimeMillis();
+
+        private PlaylistReplica(StreamContext context) {
+            this.playlists = new HashMap<>(context.getPlaylistContents());
+            this.lastSequence = context.getStreamSequences().isEmpty() ? -1 : context.getStreamSequences().last();
+            this.storageTypes = context.getStorageTypes() == null ? Set.of()
+                    : context.getStorageTypes().stream().map(String::toLowerCase).collect(Collectors.toSet());
+            this.videoQuality = context.getVideoQuality() != null ? context.getVideoQuality() : VideoQuality.LOW;
+        }
+
+        private PlaylistReplica touch() {
+            refreshedAt = System.currentTimeMillis();
+            return this;
+        }
+
+        private boolean isExpired(long maxAgeMs) {
+            return System.currentTimeMillis() - refreshedAt > maxAgeMs;
         }
     }
 
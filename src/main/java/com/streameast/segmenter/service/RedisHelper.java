@@ -1,77 +1,197 @@
-package com.streameast.segmenter.service;
-
-import com.streameast.segmenter.model.StreamContext;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.stereotype.Service;
-
-import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
-
-@Service
-public class RedisHelper {
-
-    private final RedisTemplate<String, StreamContext> redisTemplate;
-
-    public RedisHelper(RedisTemplate<String, StreamContext> redisTemplate) {
-        this.redisTemplate = redisTemplate;
-    }
-
-    public void saveContext(String key, StreamContext context) {
-        redisTemplate.opsForValue().set(key, context);
-    }
-
-    public StreamContext getContext(String key) {
-        return redisTemplate.opsForValue().get(key);
-    }
-
-    public void deleteContext(String key) {
-        redisTemplate.delete(key);
-    }
-
-    public List<StreamContext> getReadyScheduledContexts(LocalDateTime dateTime) {
-        // Retrieve all keys
-        Set<String> keys = redisTemplate.keys("*"); // Use a wildcard to get all keys
-        List<StreamContext> results = new ArrayList<>();
-
-        if (keys != null) {
-            for (String key : keys) {
-                StreamContext context = redisTemplate.opsForValue().get(key);
-                if (context != null
-                        && context.getPId() == -1
-                        && context.isProccessing() == false
-                        && context.isActive() == true) {
-
-                    if( dateTime==null || (dateTime != null && dateTime.isAfter(context.getStartTime()))){
-                        results.add(context);
-                    }
-                }
-            }
-        }
-        return results;
-    }
-
-    public List<StreamContext> getScheduledStreamForNotification(LocalDateTime dateTime) {
-        // Retrieve all keys
-        Set<String> keys = redisTemplate.keys("*"); // Use a wildcard to get all keys
-        List<StreamContext> results = new ArrayList<>();
-
-        if (keys != null) {
-            for (String key : keys) {
-                StreamContext context = redisTemplate.opsForValue().get(key);
-                if (context != null
-                        && context.getPId() == -1
-                        && context.isProccessing() == false
-                        && context.isActive() == true) {
-
-                    if( dateTime==null || (dateTime != null && dateTime.isBefore(context.getStartTime()))){
-                        results.add(context);
-                    }
-                }
-            }
-        }
-        return results;
-    }
-}
-
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.model.StreamContext;
+import com.streameast.segmenter.util.AppConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+@Slf4j
+@Service
+public class RedisHelper {
+
+    private static final int MAX_UPDATE_ATTEMPTS = 10;
+    // Bumped by every context write, so a writer holding a copy can store it without reading it back
+    private static final String VERSION_KEY_PREFIX = AppConstants.REDIS_INTERNAL_PREFIX + "version:";
+    private static final byte[] SET_IF_VERSION_SCRIPT = ("if redis.call('GET', KEYS[2]) == ARGV[1] then "
+            + "redis.call('SET', KEYS[1], ARGV[2]) return redis.call('INCR', KEYS[2]) end return -1")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final RedisTemplate<String, StreamContext> redisTemplate;
+
+    public RedisHelper(RedisTemplate<String, StreamContext> redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    public void saveContext(String key, StreamContext context) {
+        redisTemplate.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> List<Object> execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, StreamContext> ops = (RedisOperations<String, StreamContext>) operations;
+                ops.multi();
+                ops.opsForValue().set(key, context);
+                ops.opsForValue().increment(VERSION_KEY_PREFIX + key);
+                return ops.exec();
+            }
+        });
+    }
+
+    public StreamContext getContext(String key) {
+        return redisTemplate.opsForValue().get(key);
+    }
+
+    // Read-modify-write under WATCH/MULTI/EXEC, so concurrent writers on any node never lose each
+    // other's changes. The update is re-run on a fresh copy after a conflict, it must only depend on
+    // the context it gets. Returns the stored context, or null if the key does not exist.
+    public StreamContext updateContext(String key, Consumer<StreamContext> update) {
+        VersionedContext updated = updateVersionedContext(key, update);
+        return updated != null ? updated.context() : null;
+    }
+
+    // updateContext, also returning the version the context was stored at
+    public VersionedContext updateVersionedContext(String key, Consumer<StreamContext> update) {
+        for (int attempt = 1; attempt <= MAX_UPDATE_ATTEMPTS; attempt++) {
+            StreamContext[] updated = new StreamContext[1];
+            List<Object> result = redisTemplate.execute(new SessionCallback<List<Object>>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> List<Object> execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, StreamContext> ops = (RedisOperations<String, StreamContext>) operations;
+                    ops.watch(key);
+                    StreamContext context = ops.opsForValue().get(key);
+                    if (context == null) {
+                        ops.unwatch();
+                        return null;
+                    }
+
+                    update.accept(context);
+                    updated[0] = context;
+                    ops.multi();
+                    ops.opsForValue().set(key, context);
+                    ops.opsForValue().increment(VERSION_KEY_PREFIX + key);
+                    return ops.exec();
+                }
+            });
+
+            if (updated[0] == null) {
+                return null;
+            }
+            if (result != null && !result.isEmpty()) {
+                return new VersionedContext(updated[0], (Long) result.get(1));
+            }
+
+            log.debug("Concurrent update of {} detected, retrying (attempt {}/{})", key, attempt, MAX_UPDATE_ATTEMPTS);
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(1, 5 * attempt + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        throw new RuntimeException("Failed to update context " + key + " after " + MAX_UPDATE_ATTEMPTS + " attempts");
+    }
+
+    // Stores a copy the caller holds in one round trip, if no one else wrote the context since it got
+    // that version. Returns the new version, or -1 if the copy is stale and must be updated afresh.
+    @SuppressWarnings("unchecked")
+    public long setContextIfVersion(String key, StreamContext context, long version) {
+        byte[] value = ((RedisSerializer<StreamContext>) redisTemplate.getValueSerializer()).serialize(context);
+        Long stored = redisTemplate.execute((RedisCallback<Long>) connection -> connection.scriptingCommands().eval(
+                SET_IF_VERSION_SCRIPT, ReturnType.INTEGER, 2,
+                key.getBytes(StandardCharsets.UTF_8),
+                (VERSION_KEY_PREFIX + key).getBytes(StandardCharsets.UTF_8),
+                String.valueOf(version).getBytes(StandardCharsets.UTF_8),
+                value));
+        return stored == null ? -1 : stored;
+    }
+
+    // Raw binary values next to the contexts, for compact per-stream data such as the DVR index
+    public long appendBytes(String key, byte[] value) {
+        Long length = redisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.stringCommands().append(key.getBytes(StandardCharsets.UTF_8), value));
+        return length == null ? 0 : length;
+    }
+
+    public byte[] getBytes(String key) {
+        return redisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public void setBytes(String key, byte[] value) {
+        redisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.stringCommands().set(key.getBytes(StandardCharsets.UTF_8), value));
+    }
+
+    public void deleteContext(String key) {
+        redisTemplate.delete(List.of(key, VERSION_KEY_PREFIX + key));
+    }
+
+    public List<StreamContext> getReadyScheduledContexts(LocalDateTime dateTime) {
+        // Retrieve all keys
+        Set<String> keys = redisTemplate.keys("*"); // Use a wildcard to get all keys
+        List<StreamContext> results = new ArrayList<>();
+
+        if (keys != null) {
+            for (String key : keys) {
+                if (key.startsWith(AppConstants.REDIS_INTERNAL_PREFIX)) {
+                    continue;
+                }
+                StreamContext context = redisTemplate.opsForValue().get(key);
+                if (context != null
+                        && context.getPId() == -1
+                        && context.isProccessing() == false
+                        && context.isActive() == true) {
+
+                    if( dateTime==null || (dateTime != null && dateTime.isAfter(context.getStartTime()))){
+                        results.add(context);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    public record VersionedContext(StreamContext context, long version) {
+    }
+
+    public List<StreamContext> getScheduledStreamForNotification(LocalDateTime dateTime) {
+        // Retrieve all keys
+        Set<String> keys = redisTemplate.keys("*"); // Use a wildcard to get all keys
+        List<StreamContext> results = new ArrayList<>();
+
+        if (keys != null) {
+            for (String key : keys) {
+                if (key.startsWith(AppConstants.REDIS_INTERNAL_PREFIX)) {
+                    continue;
+                }
+                StreamContext context = redisTemplate.opsForValue().get(key);
+                if (context != null
+                        && context.getPId() == -1
+                        && context.isProccessing() == false
+                        && context.isActive() == true) {
+
+                    if( dateTime==null || (dateTime != null && dateTime.isBefore(context.getStartTime()))){
+                        results.add(context);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+}
+
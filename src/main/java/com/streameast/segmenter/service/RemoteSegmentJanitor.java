@@ -0,0 +1,65 @@
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.model.StreamContext;
+import com.streameast.segmenter.service.impl.StorageServiceFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Rolling cleanup of remote segments, driven by publishing: once enough segments fell behind the
+// playlist window plus the DVR depth they are deleted in one batch per backend
+@Slf4j
+@Service
+public class RemoteSegmentJanitor {
+
+    // Bounds the first batch of streams that were running before rolling cleanup existed
+    private static final int MAX_DELETE_SEGMENTS = 1000;
+    // Playlist replicas on other nodes are refreshed at most every two segment durations
+    private static final int REPLICA_LAG_SEGMENTS = 2;
+
+    private final AppSettings appSettings;
+    private final StorageServiceFactory storageServiceFactory;
+
+    public RemoteSegmentJanitor(AppSettings appSettings, StorageServiceFactory storageServiceFactory) {
+        this.appSettings = appSettings;
+        this.storageServiceFactory = storageServiceFactory;
+    }
+
+    // Runs inside the atomic context update, moves the watermark and returns the new one
+    public int advance(StreamContext context) {
+        int retainedFrom = context.getRemoteRetainedFrom();
+        if (context.getStreamSequences().isEmpty()) {
+            return retainedFrom;
+        }
+
+        AppSettings.RetentionParams retention = appSettings.getRetention();
+        // At least one playlist behind the window, counted from the window stale replicas still serve
+        int margin = Math.max(appSettings.getRequiredParams().getMaxSegmentsInPlaylist(),
+                appSettings.getRetainedSegmentsBehindWindow()) + REPLICA_LAG_SEGMENTS;
+        int cutoff = context.getFirstSequence() - margin;
+        if (cutoff - retainedFrom < Math.max(1, retention.getRemoteDeleteBatchSegments())) {
+            return retainedFrom;
+        }
+        context.setRemoteRetainedFrom(cutoff);
+        return cutoff;
+    }
+
+    // Deletes segments [from, to) on every backend of the stream; sequences never uploaded are harmless
+    public void delete(StreamContext context, int from, int to) {
+        if (to <= from) {
+            return;
+        }
+
+        List<String> segmentNames = new ArrayList<>(Math.min(to - from, MAX_DELETE_SEGMENTS));
+        for (int sequence = Math.max(from, to - MAX_DELETE_SEGMENTS); sequence < to; sequence++) {
+            segmentNames.add("segment_" + sequence + ".ts");
+        }
+
+        log.debug("Deleting remote segments {}..{} of stream {}", from, to - 1, context.getId());
+        storageServiceFactory.getStorageServices(context.getStorageTypes())
+                .forEach(service -> service.deleteSegments(context.getId(), segmentNames));
+    }
+}
@@ -0,0 +1,130 @@
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.model.AdvertisementInfo;
+import com.streameast.segmenter.model.AdvertisementSchedule;
+import com.streameast.segmenter.model.SpliceInsert;
+import com.streameast.segmenter.model.StreamContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+// Turns the SCTE-35 sections ffmpeg copies out of the source into ad breaks. ffmpeg writes the
+// data stream's packets unchanged next to the encode, so cues cost no extra decode or connection.
+@Slf4j
+@Service
+public class Scte35CueService {
+
+    private final AppSettings appSettings;
+    private final RedisHelper redisHelper;
+    private final SegmentPipeline segmentPipeline;
+    private final ThreadPoolTaskExecutor scte35CueExecutor;
+
+    public Scte35CueService(AppSettings appSettings, RedisHelper redisHelper, SegmentPipeline segmentPipeline,
+                            @Qualifier("scte35CueExecutor") ThreadPoolTaskExecutor scte35CueExecutor) {
+        this.appSettings = appSettings;
+        this.redisHelper = redisHelper;
+        this.segmentPipeline = segmentPipeline;
+        this.scte35CueExecutor = scte35CueExecutor;
+    }
+
+    public Path getCueFile(String streamId) {
+        return appSettings.resolvePersistentPath("cues", streamId + ".scte35");
+    }
+
+    // Reads cues until the returned tail is completed, after ffmpeg wrote its last section
+    public SegmentTail start(String streamId) throws IOException {
+        Path cueFile = getCueFile(streamId);
+        Files.createDirectories(cueFile.getParent());
+        // Opened before ffmpeg starts, which truncates and appends to the same file
+        Files.write(cueFile, new byte[0]);
+        SegmentTail tail = new SegmentTail(cueFile);
+        InputStream input = tail.open();
+
+        scte35CueExecutor.execute(() -> read(streamId, input));
+        return tail;
+    }
+
+    private void read(String streamId, InputStream source) {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(source))) {
+            while (true) {
+                int tableId = input.read();
+                if (tableId == -1) {
+                    return;
+                }
+                if (tableId != SpliceInsert.TABLE_ID) {
+                    continue; // Resync on the next section
+                }
+
+                int header = input.readUnsignedShort();
+                byte[] section = new byte[3 + (header & 0x0FFF)];
+                section[0] = (byte) tableId;
+                section[1] = (byte) (header >> 8);
+                section[2] = (byte) header;
+                input.readFully(section, 3, section.length - 3);
+
+                try {
+                    SpliceInsert cue = SpliceInsert.decode(section);
+                    if (cue != null) {
+                        apply(streamId, cue);
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("Skipped SCTE-35 section of stream {}: {}", streamId, e.getMessage());
+                }
+            }
+        } catch (EOFException e) {
+            log.debug("SCTE-35 data of stream {} ended inside a section", streamId);
+        } catch (IOException e) {
+            log.warn("Stopped reading SCTE-35 cues of stream {}: {}", streamId, e.getMessage());
+        }
+    }
+
+    private void apply(String streamId, SpliceInsert cue) {
+        if (cue.cancelled()) {
+            log.info("SCTE-35 splice event {} cancelled for stream {}", cue.eventId(), streamId);
+            return;
+        }
+
+        // Segments start on the keyframe grid, the next boundary is the one after the segment ffmpeg writes now
+        int boundary = segmentPipeline.getLastDetected(streamId) + 1;
+        int segmentDuration = appSettings.getRequiredParams().getSegmentDuration();
+        if (cue.outOfNetwork()) {
+            int duration = cue.breakDurationSeconds() > 0
+                    ? cue.breakDurationSeconds() : appSettings.getScte35().getDefaultBreakSeconds();
+            redisHelper.updateContext(streamId, context -> {
+                // An ad spliced at the same boundary fills the break
+                if (context.getAdvertisements().get(boundary) == null) {
+                    context.addAdvertisement(boundary, new AdvertisementInfo(null, duration, List.of(), false));
+                }
+            });
+            log.info("SCTE-35 cue-out {} for stream {}: {} s break at segment {}", cue.eventId(), streamId, duration, boundary);
+        } else {
+            redisHelper.updateContext(streamId, context -> endBreak(context, boundary, segmentDuration));
+            log.info("SCTE-35 cue-in {} for stream {} at segment {}", cue.eventId(), streamId, boundary);
+        }
+    }
+
+    // A cue-in before the break duration ran out shortens the break to end at the boundary
+    private void endBreak(StreamContext context, int boundary, int segmentDuration) {
+        AdvertisementSchedule advertisements = context.getAdvertisements();
+        int index = advertisements.floorIndex(boundary);
+        if (index < 0) {
+            return;
+        }
+        int start = advertisements.keyAt(index);
+        AdvertisementInfo adInfo = advertisements.valueAt(index);
+        if (adInfo.isCueBreak() && start + adInfo.segmentsCovered(segmentDuration) > boundary) {
+            context.addAdvertisement(start, new AdvertisementInfo(null, (boundary - start) * segmentDuration, List.of(), false));
+        }
+    }
+}
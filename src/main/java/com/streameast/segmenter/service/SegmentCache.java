@@ -0,0 +1,147 @@
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Newest segments of each live stream in direct buffers, outside the heap so hundreds of megabytes
+// of video don't add to GC work. Bounded per stream and in total, the total bound evicts LRU first.
+@Slf4j
+@Service
+public class SegmentCache {
+
+    private final int segmentsPerStream;
+    private final long maxBytes;
+    private final Counter hits;
+    private final Counter misses;
+
+    // Access ordered, iteration starts at the least recently used segment
+    private final LinkedHashMap<String, CachedSegment> segments = new LinkedHashMap<>(64, 0.75f, true);
+    // Cached keys of each stream in the order they were added
+    private final Map<String, Deque<String>> streamSegments = new HashMap<>();
+    private long usedBytes;
+
+    public SegmentCache(AppSettings appSettings, MeterRegistry meterRegistry) {
+        this.segmentsPerStream = appSettings.getSegmentCache().getSegmentsPerStream();
+        this.maxBytes = appSettings.getSegmentCache().getMaxMegabytes() * 1024L * 1024L;
+
+        Gauge.builder("segmenter.segment.cache.bytes", this, SegmentCache::getUsedBytes)
+                .description("Off-heap memory held by cached segments")
+                .register(meterRegistry);
+        this.hits = Counter.builder("segmenter.segment.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("segmenter.segment.cache.requests").tag("result", "miss").register(meterRegistry);
+    }
+
+    public void put(String streamId, Path segmentPath) throws IOException {
+        if (segmentsPerStream <= 0) {
+            return;
+        }
+
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0 || size > maxBytes) {
+                return;
+            }
+            buffer = ByteBuffer.allocateDirect((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read until the buffer is full
+            }
+            buffer.flip();
+        }
+
+        store(streamId, segmentPath.getFileName().toString(), buffer);
+    }
+
+    public void put(String streamId, String segmentName, byte[] content) {
+        if (segmentsPerStream <= 0 || content.length == 0 || content.length > maxBytes) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+        buffer.put(content).flip();
+        store(streamId, segmentName, buffer);
+    }
+
+    private void store(String streamId, String segmentName, ByteBuffer buffer) {
+        String key = key(streamId, segmentName);
+        synchronized (this) {
+            CachedSegment previous = segments.put(key, new CachedSegment(streamId, buffer.asReadOnlyBuffer()));
+            if (previous != null) {
+                usedBytes -= previous.buffer.capacity();
+            } else {
+                streamSegments.computeIfAbsent(streamId, id -> new ArrayDeque<>()).addLast(key);
+            }
+            usedBytes += buffer.capacity();
+
+            Deque<String> keys = streamSegments.get(streamId);
+            while (keys.size() > segmentsPerStream) {
+                remove(keys.pollFirst());
+            }
+
+            Iterator<Map.Entry<String, CachedSegment>> eldest = segments.entrySet().iterator();
+            while (usedBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, CachedSegment> entry = eldest.next();
+                eldest.remove();
+                usedBytes -= entry.getValue().buffer.capacity();
+                Deque<String> streamKeys = streamSegments.get(entry.getValue().streamId);
+                if (streamKeys != null) {
+                    streamKeys.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
+    // Returns a private view of the cached bytes, or null if the segment is not cached
+    public ByteBuffer get(String streamId, String segmentName) {
+        CachedSegment segment;
+        synchronized (this) {
+            segment = segments.get(key(streamId, segmentName));
+        }
+        if (segment == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return segment.buffer.duplicate();
+    }
+
+    public synchronized void evictStream(String streamId) {
+        Deque<String> keys = streamSegments.remove(streamId);
+        if (keys != null) {
+            keys.forEach(this::remove);
+        }
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    private void remove(String key) {
+        CachedSegment removed = segments.remove(key);
+        if (removed != null) {
+            usedBytes -= removed.buffer.capacity();
+        }
+    }
+
+    private static String key(String streamId, String segmentName) {
+        return streamId + "/" + segmentName;
+    }
+
+    private record CachedSegment(String streamId, ByteBuffer buffer) {
+    }
+}
@@ -0,0 +1,429 @@
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Every stream is an actor with its own mailbox: segment detection, upload and publish are ordered
+// stages driven by messages, and the actor is the only writer of its stream's state. Actors share
+// one small pool, one shared watcher feeds them, uploads run on the storage executors.
+@Slf4j
+@Service
+public class SegmentPipeline {
+
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("(segment|advertisement)_(\\d+)\\.ts");
+    // Messages a stream handles before giving its thread to the next stream in the pool queue
+    private static final int MAILBOX_BATCH_LIMIT = 32;
+
+    private final ThreadPoolTaskExecutor segmentPipelineExecutor;
+    private final PlaylistService playlistService;
+    private final int readyIfSegmentCount;
+    private final Map<String, StreamActor> actors = new ConcurrentHashMap<>();
+    private final Map<WatchKey, StreamActor> watchKeys = new ConcurrentHashMap<>();
+    private WatchService watchService;
+
+    public SegmentPipeline(@Qualifier("segmentPipelineExecutor") ThreadPoolTaskExecutor segmentPipelineExecutor,
+                           PlaylistService playlistService, AppSettings appSettings) {
+        this.segmentPipelineExecutor = segmentPipelineExecutor;
+        this.playlistService = playlistService;
+        this.readyIfSegmentCount = appSettings.getRequiredParams().getReadyIfSegmentCount();
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        Thread watcher = new Thread(this::watch, "segment-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("Failed to close segment watcher: {}", e.getMessage());
+        }
+    }
+
+    // skipSegment filters detected segments that must not be published, onFirstPublish runs once.
+    // With streamedSegmentBytes, the expected segment size, segment files are uploaded while ffmpeg
+    // writes them; 0 uploads closed files only.
+    public void open(String streamId, Path directory, List<StorageService> services, long streamedSegmentBytes,
+                     Predicate<String> skipSegment, Runnable onFirstPublish) throws IOException {
+        close(streamId);
+        StreamActor actor = new StreamActor(streamId, directory, services, streamedSegmentBytes, skipSegment, onFirstPublish);
+        actor.watchKey = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+        watchKeys.put(actor.watchKey, actor);
+        actors.put(streamId, actor);
+    }
+
+    // Stops detecting new segments, uploads already running still get published
+    public void close(String streamId) {
+        StreamActor actor = actors.remove(streamId);
+        if (actor != null) {
+            actor.closed = true;
+            actor.watchKey.cancel();
+            watchKeys.remove(actor.watchKey);
+            actor.post(new Closed());
+        }
+    }
+
+    // ffmpeg has exited, so every segment it wrote is closed and can be published without waiting for
+    // later ones. Completes once those segments are published or failed.
+    public CompletableFuture<Void> flush(String streamId) {
+        StreamActor actor = actors.get(streamId);
+        if (actor == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> flushed = new CompletableFuture<>();
+        actor.post(new Flush(flushed));
+        return flushed;
+    }
+
+    // A segment PUT by ffmpeg in HTTP_PUT mode, complete once its request body ended; false if the stream isn't open
+    public boolean receive(String streamId, String segmentName, byte[] content) {
+        StreamActor actor = actors.get(streamId);
+        if (actor == null) {
+            return false;
+        }
+        Matcher matcher = SEGMENT_PATTERN.matcher(segmentName);
+        if (matcher.matches() && matcher.group(1).equals("segment")) {
+            actor.lastReceived.accumulateAndGet(Integer.parseInt(matcher.group(2)), Math::max);
+        }
+        actor.post(new Received(segmentName, content));
+        return true;
+    }
+
+    // Highest segment number received over HTTP that may not be published yet, -1 if none
+    public int getLastReceived(String streamId) {
+        StreamActor actor = actors.get(streamId);
+        return actor == null ? -1 : actor.lastReceived.get();
+    }
+
+    // Segment ffmpeg is writing or sent last, -1 if none
+    public int getLastDetected(String streamId) {
+        StreamActor actor = actors.get(streamId);
+        return actor == null ? -1 : Math.max(actor.lastCreated, actor.lastReceived.get());
+    }
+
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            StreamActor actor = watchKeys.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (actor != null && event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    actor.post(new Created((Path) event.context()));
+                }
+            }
+            if (!key.reset() && actor != null && watchKeys.remove(key) != null) {
+                log.warn("Watch key is no longer valid for stream: {}", actor.streamId);
+            }
+        }
+    }
+
+    private record Created(Path fileName) {
+    }
+
+    private record Received(String segmentName, byte[] content) {
+    }
+
+    private record Uploaded(Segment segment, Throwable error) {
+    }
+
+    private record Closed() {
+    }
+
+    private record Flush(CompletableFuture<Void> flushed) {
+    }
+
+    private enum Stage {
+        DETECTED,
+        UPLOADING,
+        UPLOADED,
+        FAILED
+    }
+
+    private static class Segment {
+        private final String name;
+        private final int sequence;
+        private final boolean advertisement;
+        // Received segments are held in memory until all uploads completed
+        private byte[] content;
+        // Set while a segment file is uploaded as ffmpeg writes it
+        private SegmentTail tail;
+        private Stage stage = Stage.DETECTED;
+        // Written before ffmpeg exited, complete without a later segment
+        private boolean closed;
+
+        private Segment(String name, int sequence, boolean advertisement, byte[] content) {
+            this.name = name;
+            this.sequence = sequence;
+            this.advertisement = advertisement;
+            this.content = content;
+        }
+    }
+
+    private class StreamActor implements Runnable {
+        private final String streamId;
+        private final Path directory;
+        private final List<StorageService> services;
+        private final long streamedSegmentBytes;
+        private final Predicate<String> skipSegment;
+        private final Runnable onFirstPublish;
+        private final Queue<Object> mailbox = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final AtomicInteger lastReceived = new AtomicInteger(-1);
+        private volatile boolean closed;
+        private WatchKey watchKey;
+
+        // Only touched from run(), which never executes concurrently for one actor
+        private final Deque<Segment> segments = new ArrayDeque<>();
+        private final List<Integer> publishBatch = new ArrayList<>();
+        // Written from run() only, volatile for getLastDetected
+        private volatile int lastCreated = -1;
+        private boolean published;
+        // Context as this actor last stored it, batches are applied to it while no one else writes
+        private RedisHelper.VersionedContext context;
+        private final List<CompletableFuture<Void>> flushes = new ArrayList<>();
+
+        private StreamActor(String streamId, Path directory, List<StorageService> services, long streamedSegmentBytes,
+                            Predicate<String> skipSegment, Runnable onFirstPublish) {
+            this.streamId = streamId;
+            this.directory = directory;
+            this.services = services;
+            this.streamedSegmentBytes = streamedSegmentBytes;
+            this.skipSegment = skipSegment;
+            this.onFirstPublish = onFirstPublish;
+        }
+
+        private void post(Object message) {
+            mailbox.add(message);
+            if (scheduled.compareAndSet(false, true)) {
+                segmentPipelineExecutor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Object message;
+                int handled = 0;
+                while (handled < MAILBOX_BATCH_LIMIT && (message = mailbox.poll()) != null) {
+                    handle(message);
+                    handled++;
+                }
+                startUploads();
+                collectUploaded();
+                publish();
+                completeFlushes();
+            } catch (Exception e) {
+                log.error("Segment pipeline failed for stream {}", streamId, e);
+            } finally {
+                scheduled.set(false);
+                // Re-queued at the back of the pool, so a busy stream can't starve the others
+                if (!mailbox.isEmpty() && scheduled.compareAndSet(false, true)) {
+                    segmentPipelineExecutor.execute(this);
+                }
+            }
+        }
+
+        private void handle(Object message) {
+            if (message instanceof Created created) {
+                detect(created.fileName().toString(), null);
+            } else if (message instanceof Received received) {
+                detect(received.segmentName(), received.content());
+            } else if (message instanceof Uploaded uploaded) {
+                uploaded.segment().content = null;
+                if (uploaded.error() != null) {
+                    uploaded.segment().stage = Stage.FAILED;
+                    log.error("Error processing segment: {} - {}", uploaded.segment().name, uploaded.error().getMessage());
+                } else {
+                    uploaded.segment().stage = Stage.UPLOADED;
+                }
+            } else if (message instanceof Closed) {
+                // ffmpeg is gone, segments it never closed are not published
+                segments.stream()
+                        .filter(segment -> segment.tail != null && !segment.tail.whenComplete().isDone())
+                        .forEach(segment -> segment.tail.abort());
+            } else if (message instanceof Flush flush) {
+                detectRemaining();
+                segments.forEach(segment -> segment.closed = true);
+                flushes.add(flush.flushed());
+            }
+        }
+
+        // The watcher may not have delivered the last files ffmpeg created before it exited
+        private void detectRemaining() {
+            try (var files = Files.list(directory)) {
+                files.map(path -> path.getFileName().toString())
+                        .map(SEGMENT_PATTERN::matcher)
+                        .filter(matcher -> matcher.matches() && matcher.group(1).equals("segment")
+                                && Integer.parseInt(matcher.group(2)) > lastCreated)
+                        .sorted(Comparator.comparingInt(matcher -> Integer.parseInt(matcher.group(2))))
+                        .forEach(matcher -> detect(matcher.group(), null));
+            } catch (IOException e) {
+                log.warn("Failed to list segments of stream {}: {}", streamId, e.getMessage());
+            }
+        }
+
+        private void completeFlushes() {
+            if (!flushes.isEmpty() && segments.stream().noneMatch(segment -> segment.closed)) {
+                flushes.forEach(flushed -> flushed.complete(null));
+                flushes.clear();
+            }
+        }
+
+        private void detect(String segmentName, byte[] content) {
+            Matcher matcher = SEGMENT_PATTERN.matcher(segmentName);
+            if (closed || !matcher.matches()) {
+                return;
+            }
+
+            int sequence = Integer.parseInt(matcher.group(2));
+            boolean advertisement = matcher.group(1).equals("advertisement");
+            // Already picked up by a flush
+            if (!advertisement && content == null && sequence <= lastCreated) {
+                return;
+            }
+            if (!advertisement) {
+                lastCreated = Math.max(lastCreated, sequence);
+            }
+            if (skipSegment.test(segmentName)) {
+                log.debug("Pre-roll segment {} not published, Stream ID ={}", segmentName, streamId);
+                return;
+            }
+            segments.add(new Segment(segmentName, sequence, advertisement, content));
+        }
+
+        // ffmpeg is done with a segment file once a later one is created; ads are complete files already
+        // and received segments are complete when their request ended
+        private void startUploads() {
+            for (Segment segment : segments) {
+                if (streamedSegmentBytes > 0 && segment.stage == Stage.DETECTED && segment.content == null && !segment.advertisement) {
+                    startTail(segment);
+                }
+                // ffmpeg's segment muxer closes a segment before it creates the next one
+                if (segment.tail != null && (segment.closed || segment.sequence < lastCreated)) {
+                    segment.tail.complete();
+                }
+                if (segment.stage != Stage.DETECTED) {
+                    continue;
+                }
+                if (segment.content != null) {
+                    log.info("SEGMENT:{} received for upload, Stream ID ={}", segment.name, streamId);
+                    segment.stage = Stage.UPLOADING;
+                    upload(segment, service -> service.uploadSegment(segment.content, segment.name, streamId));
+                    continue;
+                }
+                if (!segment.advertisement && !segment.closed && segment.sequence + readyIfSegmentCount > lastCreated) {
+                    continue;
+                }
+
+                Path segmentPath = directory.resolve(segment.name);
+                try {
+                    if (!Files.exists(segmentPath) || Files.size(segmentPath) == 0) {
+                        log.warn("Skipping empty or non-existent segment: {}", segmentPath);
+                        segment.stage = Stage.FAILED;
+                        continue;
+                    }
+                } catch (IOException e) {
+                    log.warn("Failed to read segment {}: {}", segmentPath, e.getMessage());
+                    segment.stage = Stage.FAILED;
+                    continue;
+                }
+
+                log.info("SEGMENT:{} ready for upload, Stream ID ={}", segment.name, streamId);
+                segment.stage = Stage.UPLOADING;
+                upload(segment, service -> service.uploadSegment(segmentPath, streamId));
+            }
+        }
+
+        // Readers of the tail only reach its end once complete() ran, so just whole segments get published.
+        // A failed streaming upload falls back to uploading the closed file.
+        private void startTail(Segment segment) {
+            SegmentTail tail = new SegmentTail(directory.resolve(segment.name), streamedSegmentBytes);
+            segment.tail = tail;
+            segment.stage = Stage.UPLOADING;
+            log.info("SEGMENT:{} streaming upload started, Stream ID ={}", segment.name, streamId);
+            upload(segment, service -> service.uploadSegment(tail, streamId)
+                    .exceptionallyCompose(e -> {
+                        log.warn("Streaming upload of {} failed, uploading the closed file: {}", segment.name, e.getMessage());
+                        return tail.whenComplete().thenCompose(v -> service.uploadSegment(tail.getPath(), streamId));
+                    }));
+        }
+
+        private void upload(Segment segment, Function<StorageService, CompletableFuture<String>> upload) {
+            CompletableFuture.allOf(services.stream()
+                            .map(upload)
+                            .toArray(CompletableFuture[]::new))
+                    .whenComplete((v, ex) -> post(new Uploaded(segment, ex)));
+        }
+
+        // Publish strictly in detection order, a slow upload holds back the ones behind it
+        private void collectUploaded() {
+            while (!segments.isEmpty()
+                    && (segments.peekFirst().stage == Stage.UPLOADED || segments.peekFirst().stage == Stage.FAILED)) {
+                Segment segment = segments.pollFirst();
+                if (segment.stage == Stage.UPLOADED) {
+                    publishBatch.add(segment.sequence);
+                    log.debug("Successfully processed segment: {}", segment.name);
+                }
+            }
+        }
+
+        private void publish() {
+            if (publishBatch.isEmpty()) {
+                return;
+            }
+            try {
+                context = playlistService.publishSegments(streamId, publishBatch, context);
+                if (!published) {
+                    published = true;
+                    onFirstPublish.run();
+                }
+            } catch (Exception e) {
+                context = null;
+                log.error("Failed to publish segments {} for stream {}", publishBatch, streamId, e);
+            } finally {
+                publishBatch.clear();
+            }
+        }
+    }
+}
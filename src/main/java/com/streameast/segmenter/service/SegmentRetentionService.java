@@ -0,0 +1,170 @@
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.model.StreamContext;
+import com.streameast.segmenter.util.AppConstants;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Deletes local segments once they slid out of the playlist window (plus the DVR depth) and keeps
+// all local segments under the disk quota. Only published segments leave the window, and a segment
+// is published after all its uploads completed, so nothing still being uploaded is ever deleted.
+@Slf4j
+@Service
+public class SegmentRetentionService {
+
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("segment_(\\d+)\\.ts");
+
+    private final AppSettings appSettings;
+    private final RedisHelper redisHelper;
+    private final Counter windowEvictions;
+    private final Counter quotaEvictions;
+    private volatile long segmentBytes;
+
+    public SegmentRetentionService(AppSettings appSettings, RedisHelper redisHelper, MeterRegistry meterRegistry) {
+        this.appSettings = appSettings;
+        this.redisHelper = redisHelper;
+
+        Gauge.builder("segmenter.disk.segment.bytes", this, service -> service.segmentBytes)
+                .description("Local disk used by segments")
+                .register(meterRegistry);
+        Gauge.builder("segmenter.disk.usable.bytes", this, SegmentRetentionService::getUsableBytes)
+                .description("Usable space on the local segment volume")
+                .register(meterRegistry);
+        this.windowEvictions = Counter.builder("segmenter.disk.evicted.segments").tag("reason", "window").register(meterRegistry);
+        this.quotaEvictions = Counter.builder("segmenter.disk.evicted.segments").tag("reason", "quota").register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelay = 10, timeUnit = TimeUnit.SECONDS)
+    public void enforceRetention() {
+        // Staged and spilled segments of a stream live in separate directories
+        Map<String, List<Path>> streamDirs = new HashMap<>();
+        for (Path streamsDir : appSettings.resolveAllPaths("streams")) {
+            if (!Files.isDirectory(streamsDir)) {
+                continue;
+            }
+            try (DirectoryStream<Path> streams = Files.newDirectoryStream(streamsDir, Files::isDirectory)) {
+                for (Path streamDir : streams) {
+                    // Shared advertisement renditions don't belong to a stream window
+                    if (streamDir.getFileName().toString().startsWith(AppConstants.ADVERTISEMENT_PREFIX)) {
+                        continue;
+                    }
+                    streamDirs.computeIfAbsent(streamDir.getFileName().toString(), id -> new ArrayList<>()).add(streamDir);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to scan segment directories in {}: {}", streamsDir, e.getMessage());
+                return;
+            }
+        }
+
+        List<SegmentFile> evictable = new ArrayList<>();
+        long totalBytes = 0;
+        for (Map.Entry<String, List<Path>> entry : streamDirs.entrySet()) {
+            totalBytes += sweepStream(entry.getKey(), entry.getValue(), evictable);
+        }
+
+        segmentBytes = totalBytes - evictOverQuota(evictable, totalBytes);
+    }
+
+    // Deletes segments behind the DVR depth, returns the bytes left and collects the ones the quota may evict
+    private long sweepStream(String streamId, List<Path> streamDirs, List<SegmentFile> evictable) {
+        StreamContext context = redisHelper.getContext(streamId);
+        // -1 while nothing is published yet, everything is kept then; no context at all means an orphan
+        int windowStart = context == null || context.getStreamSequences().isEmpty() ? -1 : context.getFirstSequence();
+        int keepFrom = windowStart - appSettings.getRetainedSegmentsBehindWindow();
+
+        long bytes = 0;
+        int deleted = 0;
+        for (Path streamDir : streamDirs) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(streamDir, "segment_*.ts")) {
+                for (Path file : files) {
+                    Matcher matcher = SEGMENT_PATTERN.matcher(file.getFileName().toString());
+                    if (!matcher.matches()) {
+                        continue;
+                    }
+                    int sequence = Integer.parseInt(matcher.group(1));
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+                    if (windowStart >= 0 && sequence < keepFrom) {
+                        if (Files.deleteIfExists(file)) {
+                            windowEvictions.increment();
+                            deleted++;
+                        }
+                        continue;
+                    }
+
+                    bytes += attributes.size();
+                    if (context == null || (windowStart >= 0 && sequence < windowStart)) {
+                        evictable.add(new SegmentFile(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Failed to apply retention to stream {} in {}: {}", streamId, streamDir, e.getMessage());
+            }
+        }
+
+        if (deleted > 0) {
+            log.debug("Deleted {} segments behind the window of stream {}", deleted, streamId);
+        }
+        return bytes;
+    }
+
+    // Least recently written segments go first, segments still in a playlist window are never evicted
+    private long evictOverQuota(List<SegmentFile> evictable, long totalBytes) {
+        long quotaBytes = appSettings.getRetention().getDiskQuotaMegabytes() * 1024L * 1024L;
+        if (quotaBytes <= 0 || totalBytes <= quotaBytes) {
+            return 0;
+        }
+
+        long freed = 0;
+        evictable.sort(Comparator.comparingLong(SegmentFile::lastModified));
+        for (SegmentFile segment : evictable) {
+            if (totalBytes - freed <= quotaBytes) {
+                break;
+            }
+            try {
+                if (Files.deleteIfExists(segment.path())) {
+                    freed += segment.size();
+                    quotaEvictions.increment();
+                }
+            } catch (IOException e) {
+                log.warn("Failed to evict segment {}: {}", segment.path(), e.getMessage());
+            }
+        }
+
+        if (totalBytes - freed > quotaBytes) {
+            log.warn("Segment disk quota of {} MB exceeded by live playlist windows: {} MB in use",
+                    appSettings.getRetention().getDiskQuotaMegabytes(), (totalBytes - freed) / (1024 * 1024));
+        }
+        return freed;
+    }
+
+    private long getUsableBytes() {
+        try {
+            return Files.getFileStore(appSettings.resolvePersistentPath()).getUsableSpace();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private record SegmentFile(Path path, long size, long lastModified) {
+    }
+}
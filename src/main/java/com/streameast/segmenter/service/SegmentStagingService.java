@@ -0,0 +1,158 @@
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.model.StreamContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Keeps the memory backed staging area within its budget by moving published segments to
+// localTempPath. Segments not yet published are still being uploaded and always stay staged.
+@Slf4j
+@Service
+public class SegmentStagingService {
+
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("segment_(\\d+)\\.ts");
+    // Free space always left on the staging file system, other processes share /dev/shm
+    private static final long RESERVED_BYTES = 64L * 1024 * 1024;
+
+    private final AppSettings appSettings;
+    private final RedisHelper redisHelper;
+    private final Counter spilledSegments;
+    private volatile long stagedBytes;
+
+    public SegmentStagingService(AppSettings appSettings, RedisHelper redisHelper, MeterRegistry meterRegistry) {
+        this.appSettings = appSettings;
+        this.redisHelper = redisHelper;
+
+        Gauge.builder("segmenter.staging.bytes", this, service -> service.stagedBytes)
+                .description("Segments held in the memory backed staging area")
+                .register(meterRegistry);
+        this.spilledSegments = Counter.builder("segmenter.staging.spilled.segments")
+                .description("Segments moved from the staging area to disk")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        AppSettings.StagingParams staging = appSettings.getStaging();
+        if (!staging.isEnabled()) {
+            return;
+        }
+        try {
+            Files.createDirectories(Path.of(staging.getPath(), "streams"));
+            log.info("Staging live segments in {} with a budget of {} MB", staging.getPath(), staging.getBudgetMegabytes());
+        } catch (IOException e) {
+            log.warn("Staging directory {} not usable, writing segments to disk: {}", staging.getPath(), e.getMessage());
+            staging.setEnabled(false);
+        }
+    }
+
+    @Scheduled(fixedDelay = 2, timeUnit = TimeUnit.SECONDS)
+    public void spill() {
+        AppSettings.StagingParams staging = appSettings.getStaging();
+        if (!staging.isEnabled()) {
+            return;
+        }
+
+        Path stagingRoot = Path.of(staging.getPath(), "streams");
+        List<StagedSegment> spillable = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> streams = Files.newDirectoryStream(stagingRoot, Files::isDirectory)) {
+            for (Path streamDir : streams) {
+                total += collect(streamDir, spillable);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to scan staging area {}: {}", stagingRoot, e.getMessage());
+            return;
+        }
+
+        long overBudget = Math.max(total - staging.getBudgetMegabytes() * 1024L * 1024L,
+                RESERVED_BYTES - getUsableBytes(stagingRoot));
+        if (overBudget > 0) {
+            total -= spill(spillable, overBudget);
+        }
+        stagedBytes = total;
+    }
+
+    // Returns the staged bytes of the stream and collects the segments that may move to disk
+    private long collect(Path streamDir, List<StagedSegment> spillable) throws IOException {
+        String streamId = streamDir.getFileName().toString();
+        StreamContext context = redisHelper.getContext(streamId);
+        int lastPublished = context == null || context.getStreamSequences().isEmpty()
+                ? -1 : context.getStreamSequences().last();
+
+        long bytes = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(streamDir, "segment_*.ts")) {
+            for (Path file : files) {
+                Matcher matcher = SEGMENT_PATTERN.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                bytes += attributes.size();
+                if (Integer.parseInt(matcher.group(1)) <= lastPublished) {
+                    spillable.add(new StagedSegment(streamId, file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                }
+            }
+        }
+        return bytes;
+    }
+
+    // Oldest first; the copy is renamed into place so readers on disk never see a partial segment
+    private long spill(List<StagedSegment> spillable, long overBudget) {
+        spillable.sort(Comparator.comparingLong(StagedSegment::lastModified));
+        long freed = 0;
+        for (StagedSegment segment : spillable) {
+            if (freed >= overBudget) {
+                break;
+            }
+            Path target = appSettings.resolvePersistentPath("streams", segment.streamId(), segment.path().getFileName().toString());
+            Path partial = target.resolveSibling(target.getFileName() + ".part");
+            try {
+                Files.createDirectories(target.getParent());
+                Files.copy(segment.path(), partial, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.delete(segment.path());
+                freed += segment.size();
+                spilledSegments.increment();
+            } catch (IOException e) {
+                log.warn("Failed to spill segment {} to disk: {}", segment.path(), e.getMessage());
+            }
+        }
+
+        if (freed < overBudget) {
+            log.warn("Staging area over budget by {} MB with no published segments left to spill",
+                    (overBudget - freed) / (1024 * 1024));
+        }
+        return freed;
+    }
+
+    private long getUsableBytes(Path path) {
+        try {
+            return Files.getFileStore(path).getUsableSpace();
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private record StagedSegment(String streamId, Path path, long size, long lastModified) {
+    }
+}
@@ -0,0 +1,115 @@
+package com.streameast.segmenter.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+
+// A segment file ffmpeg is still writing. Readers get its bytes as they are written and only see the
+// end of the stream after complete(), so whatever they upload is the whole segment; abort() fails them.
+public class SegmentTail {
+
+    private static final long POLL_INTERVAL_MS = 20;
+
+    private final Path path;
+    // Size the segment is expected to reach, 0 if unknown
+    private final long expectedBytes;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    public SegmentTail(Path path) {
+        this(path, 0);
+    }
+
+    public SegmentTail(Path path, long expectedBytes) {
+        this.path = path;
+        this.expectedBytes = expectedBytes;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getExpectedBytes() {
+        return expectedBytes;
+    }
+
+    public String getSegmentName() {
+        return path.getFileName().toString();
+    }
+
+    // Completes once the segment file is closed, fails if it was aborted
+    public CompletableFuture<Void> whenComplete() {
+        return completion;
+    }
+
+    public synchronized void complete() {
+        completion.complete(null);
+        notifyAll();
+    }
+
+    public synchronized void abort() {
+        completion.completeExceptionally(new IOException("Segment " + path.getFileName() + " was not completed"));
+        notifyAll();
+    }
+
+    public InputStream open() throws IOException {
+        return new TailInputStream(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    private synchronized void awaitData() throws InterruptedIOException {
+        if (completion.isDone()) {
+            return;
+        }
+        try {
+            wait(POLL_INTERVAL_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while tailing " + path);
+        }
+    }
+
+    private class TailInputStream extends InputStream {
+        private final FileChannel channel;
+
+        private TailInputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (true) {
+                // Checked before reading: once completed, the file has no bytes left to appear
+                boolean done = completion.isDone();
+                int read = channel.read(ByteBuffer.wrap(target, offset, length));
+                if (read > 0) {
+                    return read;
+                }
+                if (done) {
+                    if (completion.isCompletedExceptionally()) {
+                        throw new IOException("Segment " + path.getFileName() + " was not completed");
+                    }
+                    return -1;
+                }
+                awaitData();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
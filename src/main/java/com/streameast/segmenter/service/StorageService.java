@@ -2,13 +2,27 @@ package com.streameast.segmenter.service;
 
 
 import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 public interface StorageService {
 
     CompletableFuture<String> uploadSegment(Path segmentPath, String streamId);
+    // Segment received in memory from the ingest endpoint, never written to the stream directory
+    CompletableFuture<String> uploadSegment(byte[] content, String segmentName, String streamId);
+    // Segment still being written; backends that can't stream an upload send the file once it is complete
+    default CompletableFuture<String> uploadSegment(SegmentTail tail, String streamId) {
+        return tail.whenComplete().thenCompose(v -> uploadSegment(tail.getPath(), streamId));
+    }
     void deleteStream(String streamId);
+    // Batch delete of segments that left the playlist window; backends without remote copies keep the no-op
+    default void deleteSegments(String streamId, List<String> segmentNames) {
+    }
     String getSegmentUrl(String streamId, String segmentName);
+    // Copies live on the disk of the node that uploaded them, not in storage shared by the cluster
+    default boolean isNodeLocal() {
+        return false;
+    }
     default String getStorageType() {
         return this.getClass().getSimpleName().replace("StorageService", "").toUpperCase();
     }
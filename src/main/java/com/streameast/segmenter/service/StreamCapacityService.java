@@ -0,0 +1,267 @@
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.model.NodeCapacity;
+import com.streameast.segmenter.model.enums.VideoQuality;
+import com.streameast.segmenter.util.AppConstants;
+import com.sun.management.OperatingSystemMXBean;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+@Service
+public class StreamCapacityService {
+
+    private static final String NODE_KEY_PREFIX = AppConstants.REDIS_INTERNAL_PREFIX + "nodes:";
+    private static final double REFERENCE_PIXELS = 1280 * 720;
+    private static final double REFERENCE_BITRATE_KBPS = 2500;
+    // Weight of the measured value when smoothing process cpu samples
+    private static final double SAMPLE_WEIGHT = 0.3;
+
+    private final AppSettings appSettings;
+    private final FFmpegProgressMonitor progressMonitor;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Allocation> allocations = new ConcurrentHashMap<>();
+    private final int totalCores = Runtime.getRuntime().availableProcessors();
+    private final OperatingSystemMXBean osBean = ManagementFactory.getPlatformMXBean(OperatingSystemMXBean.class);
+
+    public StreamCapacityService(AppSettings appSettings, FFmpegProgressMonitor progressMonitor,
+                                 StringRedisTemplate stringRedisTemplate, MeterRegistry meterRegistry) {
+        this.appSettings = appSettings;
+        this.progressMonitor = progressMonitor;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("segmenter.capacity.used.cores", this, StreamCapacityService::getUsedCores)
+                .description("Projected encoder cpu usage in cores")
+                .register(meterRegistry);
+        Gauge.builder("segmenter.capacity.available.cores", this, service -> service.getCapacityCores() - service.getUsedCores())
+                .description("Cores left for new streams")
+                .register(meterRegistry);
+    }
+
+    public double estimateCores(VideoQuality quality) {
+        // libx264 cost grows mostly with pixel count, bitrate adds rate control and entropy coding work
+        double pixelRatio = quality.getWidth() * quality.getHeight() / REFERENCE_PIXELS;
+        double bitrateRatio = quality.getVideoBitrateKbps() / REFERENCE_BITRATE_KBPS;
+        return appSettings.getCapacity().getCoresPer720pStream() * (0.8 * pixelRatio + 0.2 * bitrateRatio);
+    }
+
+    public synchronized void reserve(String streamId, VideoQuality quality) {
+        if (allocations.containsKey(streamId)) {
+            return;
+        }
+
+        double required = estimateCores(quality);
+        double projected = getUsedCores() + required;
+        boolean lagging = isOverloadedByLaggingEncoders();
+
+        if (projected > getCapacityCores() || lagging) {
+            String alternative = findAlternativeNode(required);
+            log.warn("Rejecting stream {} ({}): projected {} of {} cores, lagging encoders: {}, alternative node: {}",
+                    streamId, quality, String.format("%.2f", projected), String.format("%.2f", getCapacityCores()),
+                    lagging, alternative);
+            throw new CapacityExceededException("Node capacity exceeded for quality " + quality, alternative);
+        }
+
+        allocations.put(streamId, new Allocation(required, quality));
+        log.info("Admitted stream {} ({}), projected load {} of {} cores",
+                streamId, quality, String.format("%.2f", projected), String.format("%.2f", getCapacityCores()));
+    }
+
+    // The watermark mode tags the per-stream cpu samples, so filter setups can be compared per quality
+    public void attach(String streamId, long pid, String watermarkMode) {
+        Allocation allocation = allocations.get(streamId);
+        if (allocation != null) {
+            allocation.attach(pid, DistributionSummary.builder("segmenter.encoder.cores")
+                    .description("Measured cpu usage of one encoder in cores")
+                    .tag("quality", allocation.quality.name())
+                    .tag("watermark", watermarkMode)
+                    .register(meterRegistry));
+        }
+    }
+
+    // A suspended encoder uses no cores until it is resumed
+    public void suspend(String streamId) {
+        Allocation allocation = allocations.get(streamId);
+        if (allocation != null) {
+            allocation.suspended = true;
+        }
+    }
+
+    // Takes the cores of a suspended encoder back before it is started again; false if the node has
+    // filled up meanwhile, the stream then stays suspended and players keep getting the slate
+    public synchronized boolean resume(String streamId) {
+        Allocation allocation = allocations.get(streamId);
+        if (allocation == null || !allocation.suspended) {
+            return true;
+        }
+
+        double required = allocation.getRunningCores();
+        double projected = getUsedCores() + required;
+        if (projected > getCapacityCores()) {
+            if (!allocation.resumeRejected) {
+                log.warn("Not resuming stream {} ({}): projected {} of {} cores, alternative node: {}",
+                        streamId, allocation.quality, String.format("%.2f", projected),
+                        String.format("%.2f", getCapacityCores()), findAlternativeNode(required));
+            }
+            allocation.resumeRejected = true;
+            return false;
+        }
+
+        allocation.suspended = false;
+        allocation.resumeRejected = false;
+        return true;
+    }
+
+    public void release(String streamId) {
+        if (allocations.remove(streamId) != null) {
+            log.info("Released capacity reserved for stream {}", streamId);
+        }
+    }
+
+    public NodeCapacity getCapacity() {
+        double capacityCores = getCapacityCores();
+        double usedCores = getUsedCores();
+        return NodeCapacity.builder()
+                .nodeId(appSettings.getCapacity().getNodeId())
+                .serverUrl(appSettings.getRequiredParams().getServerUrl())
+                .totalCores(totalCores)
+                .capacityCores(capacityCores)
+                .usedCores(usedCores)
+                .availableCores(Math.max(0, capacityCores - usedCores))
+                .streams(allocations.size())
+                .laggingStreams(progressMonitor.getLaggingStreamIds())
+                .build();
+    }
+
+    @Scheduled(fixedRate = 5, timeUnit = TimeUnit.SECONDS)
+    public void sampleAndAdvertise() {
+        allocations.values().forEach(Allocation::sample);
+
+        try {
+            NodeCapacity capacity = getCapacity();
+            stringRedisTemplate.opsForValue().set(
+                    NODE_KEY_PREFIX + capacity.getNodeId(),
+                    capacity.getServerUrl() + "|" + capacity.getAvailableCores(),
+                    Duration.ofSeconds(appSettings.getCapacity().getAdvertiseTtlSeconds()));
+        } catch (Exception e) {
+            log.warn("Failed to advertise node capacity: {}", e.getMessage());
+        }
+    }
+
+    // One lagging encoder is more likely a slow source than a busy node, so lagging alone only
+    // counts when it is widespread or the cpu is actually busy
+    private boolean isOverloadedByLaggingEncoders() {
+        int lagging = progressMonitor.getLaggingStreamIds().size();
+        if (lagging == 0) {
+            return false;
+        }
+        long running = allocations.values().stream().filter(allocation -> !allocation.suspended).count();
+        return lagging >= running * appSettings.getCapacity().getMaxLaggingFraction()
+                || osBean.getCpuLoad() >= appSettings.getCapacity().getTargetUtilization();
+    }
+
+    private double getCapacityCores() {
+        return totalCores * appSettings.getCapacity().getTargetUtilization();
+    }
+
+    private double getUsedCores() {
+        return allocations.values().stream().mapToDouble(Allocation::getProjectedCores).sum();
+    }
+
+    private String findAlternativeNode(double requiredCores) {
+        try {
+            Set<String> keys = stringRedisTemplate.keys(NODE_KEY_PREFIX + "*");
+            if (keys == null) {
+                return null;
+            }
+
+            String self = NODE_KEY_PREFIX + appSettings.getCapacity().getNodeId();
+            String best = null;
+            double bestAvailable = requiredCores;
+            for (String key : keys) {
+                String value = key.equals(self) ? null : stringRedisTemplate.opsForValue().get(key);
+                if (value == null) {
+                    continue;
+                }
+                int separator = value.lastIndexOf('|');
+                double available = Double.parseDouble(value.substring(separator + 1));
+                if (available >= bestAvailable) {
+                    best = value.substring(0, separator);
+                    bestAvailable = available;
+                }
+            }
+            return best;
+        } catch (Exception e) {
+            log.warn("Failed to look up alternative nodes: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static class Allocation {
+        private final double estimatedCores;
+        private final VideoQuality quality;
+        private volatile long pid = -1;
+        private volatile DistributionSummary cpuSamples;
+        private volatile boolean suspended;
+        // Set while resuming is refused for lack of capacity, so it is logged once
+        private volatile boolean resumeRejected;
+        private volatile double measuredCores = -1;
+        private long lastCpuNanos = -1;
+        private long lastSampleNanos;
+
+        private Allocation(double estimatedCores, VideoQuality quality) {
+            this.estimatedCores = estimatedCores;
+            this.quality = quality;
+        }
+
+        private synchronized void attach(long pid, DistributionSummary cpuSamples) {
+            this.pid = pid;
+            this.cpuSamples = cpuSamples;
+            this.suspended = false;
+            this.lastCpuNanos = -1;
+        }
+
+        private double getProjectedCores() {
+            return suspended ? 0 : getRunningCores();
+        }
+
+        // Until the first measurement the estimate is used
+        private double getRunningCores() {
+            return measuredCores < 0 ? estimatedCores : measuredCores;
+        }
+
+        private synchronized void sample() {
+            if (pid < 0 || suspended) {
+                return;
+            }
+            ProcessHandle.of(pid)
+                    .flatMap(handle -> handle.info().totalCpuDuration())
+                    .ifPresent(cpu -> {
+                        long now = System.nanoTime();
+                        long cpuNanos = cpu.toNanos();
+                        if (lastCpuNanos >= 0 && now > lastSampleNanos) {
+                            double cores = (double) (cpuNanos - lastCpuNanos) / (now - lastSampleNanos);
+                            measuredCores = measuredCores < 0 ? cores : measuredCores + SAMPLE_WEIGHT * (cores - measuredCores);
+                            cpuSamples.record(cores);
+                        }
+                        lastCpuNanos = cpuNanos;
+                        lastSampleNanos = now;
+                    });
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.streameast.segmenter.service;
 
+import com.streameast.segmenter.config.AppSettings;
 import com.streameast.segmenter.model.StreamContext;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -18,18 +19,23 @@ public class StreamSchedulerService {
     private final RedisHelper redisHelper;
     private final StreamService streamService;
     private final ThreadPoolTaskExecutor schedulerExecutor;
+    private final AppSettings appSettings;
 
-    public StreamSchedulerService(@Qualifier("schedulerTaskExecutor") ThreadPoolTaskExecutor schedulerExecutor, RedisHelper redisHelper, StreamService streamService) {
+    public StreamSchedulerService(@Qualifier("schedulerTaskExecutor") ThreadPoolTaskExecutor schedulerExecutor, RedisHelper redisHelper,
+                                  StreamService streamService, AppSettings appSettings) {
         this.redisHelper = redisHelper;
         this.streamService = streamService;
         this.schedulerExecutor = schedulerExecutor;
+        this.appSettings = appSettings;
     }
 
 
     @Scheduled(fixedRate = 30, timeUnit = TimeUnit.SECONDS)
     public void processScheduledStreams() {
-        LocalDateTime now = LocalDateTime.now();
-        List<StreamContext> streamContexts = redisHelper.getReadyScheduledContexts(now);
+        // Pick streams up ahead of their start time so they can pre-roll
+        LocalDateTime preRollHorizon = LocalDateTime.now()
+                .plusSeconds(appSettings.getScheduler().getPreRollLeadSeconds());
+        List<StreamContext> streamContexts = redisHelper.getReadyScheduledContexts(preRollHorizon);
         for(StreamContext streamContext : streamContexts) {
             schedulerExecutor.execute(() -> processStream(streamContext));
         }
@@ -44,7 +50,8 @@ public class StreamSchedulerService {
                     stream.getVideoQuality(),
                     stream.getWatermark(),
                     stream.getStartTime(),
-                    stream.getId()
+                    stream.getId(),
+                    stream.getIdleMinutes()
             );
         } catch (Exception e) {
             log.error("Failed to start scheduled stream {}: {}", stream.getId(), e.getMessage());
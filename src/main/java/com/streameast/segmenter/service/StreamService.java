@@ -1,282 +1,309 @@
-package com.streameast.segmenter.service;
-
-import com.streameast.segmenter.config.AppSettings;
-import com.streameast.segmenter.model.StreamContext;
-import com.streameast.segmenter.model.Watermark;
-import com.streameast.segmenter.model.enums.VideoQuality;
-import com.streameast.segmenter.service.impl.StorageServiceFactory;
-import com.streameast.segmenter.util.AppConstants;
-import lombok.extern.slf4j.Slf4j;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.stereotype.Service;
-
-import java.io.IOException;
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardWatchEventKinds;
-import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
-import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Locale;
-import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-@Slf4j
-@Service
-public class StreamService {
-
-    private static final Logger performanceLogger = LoggerFactory.getLogger("com.streameast.segmenter.performance");
-    private final RedisHelper redisHelper;
-    private final AppSettings appSettings;
-    private final FFmpegService fFmpegService;
-    private final StorageServiceFactory storageServiceFactory;
-    private final PlaylistService playlistService;
-
-    public StreamService(AppSettings appSettings, RedisHelper redisHelper, FFmpegService fFmpegService, StorageServiceFactory storageServiceFactory, PlaylistService playlistService) {
-        this.appSettings = appSettings;
-        this.redisHelper = redisHelper;
-        this.fFmpegService = fFmpegService;
-        this.storageServiceFactory = storageServiceFactory;
-        this.playlistService = playlistService;
-    }
-
-    public CompletableFuture<List<String>> startStream(String streamUrl, List<String> storageTypes, VideoQuality quality, Watermark watermark, LocalDateTime startTime, String id) {
-
-        String streamId = id != null ? id : UUID.randomUUID().toString();
-        long startTimeMs = System.currentTimeMillis();
-        try {
-            CompletableFuture<List<String>> resultFuture = new CompletableFuture<>();
-            CompletableFuture<Void> readySignal = new CompletableFuture<>();
-            StreamContext context = redisHelper.getContext(streamId);
-            if( context == null) {
-                LocalDateTime now = LocalDateTime.now();
-                context = new StreamContext(streamId, streamUrl, storageServiceFactory.getAvailableStorageServices(storageTypes), quality, startTime == null ? now : startTime, watermark);
-                redisHelper.saveContext(streamId, context);
-
-                if(startTime != null && startTime.isAfter(now)){
-                        context.setActive(true);
-                        redisHelper.saveContext(streamId, context);
-                        resultFuture.complete(Arrays.asList("Stream scheduled for " + startTime));
-                        return resultFuture;
-                }
-            }
-
-            final List<String> urlList = context.getUrls(appSettings.getRequiredParams().getServerUrl());
-            processStream(streamId, streamUrl, readySignal, quality, watermark);
-
-            readySignal.orTimeout(60, TimeUnit.SECONDS)
-                    .thenApply(v -> urlList)
-                    .whenComplete((urls, ex) -> {
-                        if (ex != null) {
-                            stopStream(streamId);
-                            resultFuture.completeExceptionally(
-                                    new RuntimeException("Failed to start stream within timeout", ex));
-                        } else {
-                            resultFuture.complete(urls);
-                        }
-
-                        long duration = System.currentTimeMillis() - startTimeMs;
-                        log.info("Stream start process completed in {} ms for streamId: {}", duration, streamId);
-                    });
-            return resultFuture;
-
-        } catch (Exception e) {
-            long duration = System.currentTimeMillis() - startTimeMs;
-            log.error("Stream start failed in {} ms for streamId: {}", duration, streamId);
-            throw e;
-        }
-    }
-
-
-    @Async
-    protected void processStream(String streamId, String streamUrl, CompletableFuture<Void> readySignal,
-                                 VideoQuality quality, Watermark watermark) {
-
-        StreamContext context = redisHelper.getContext(streamId);
-        if(streamId == null)
-            return;
-
-        Path tempDir = appSettings.resolvePath("streams", streamId);
-        AtomicBoolean isReadyForWatch = new AtomicBoolean(false);
-
-        try {
-            final WatchService watchService = FileSystems.getDefault().newWatchService();
-            Files.createDirectories(tempDir);
-            Path segmentPattern = tempDir.resolve("segment_%d.ts");
-
-            CompletableFuture<Void> ffmpegFuture = fFmpegService.startStreamProcessing(
-                    streamId, streamUrl, segmentPattern, quality, watermark);
-
-            setupWatchService(tempDir, watchService);
-            context.setActive(true);
-            CompletableFuture.runAsync(() -> {
-                try {
-                    while (context.isActive()) {
-                        WatchKey key = watchService.take(); // Blocks until an event occurs
-                        for (WatchEvent<?> event : key.pollEvents()) {
-                            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
-                                Path newPath = tempDir.resolve((Path) event.context());
-                                String segmentName = newPath.getFileName().toString();
-                                //if it s ads no need to wait
-                                while(segmentName.indexOf("segment") != -1 &&!Files.exists(tempDir.resolve(getNextSegment(segmentName) ))) {
-                                    Thread.sleep(AppConstants.SEGMENT_PROCESSING_DELAY_MS);
-                                }
-
-                                log.info("SEGMENT:{} ready for upload, Stream ID ={}",segmentName,streamId);
-
-                                processSegment(streamId, newPath, segmentName, isReadyForWatch, readySignal);
-
-                            }
-                        }
-                        if (!key.reset()) {
-                            log.warn("Watch key is no longer valid for stream: {}", streamId);
-                            break;
-                        }
-                    }
-
-                } catch (Exception e) {
-                    log.error("Error in segment monitoring for stream {}: {}", streamId, e.getMessage());
-                    if (!readySignal.isDone()) {
-                        readySignal.completeExceptionally(e);
-                    }
-                }
-            });
-
-            ffmpegFuture.whenComplete((v, ex) -> {
-                if (ex != null) {
-                    log.error("FFmpeg processing failed for stream {}: {}", streamId, ex.getMessage());
-                    //stopStream(streamId);
-                }
-                try {
-                    if (watchService != null) {
-                        watchService.close();
-                    }
-                } catch (Exception e) {
-                    log.error("Error closing watch service for stream {}: {}", streamId, e.getMessage());
-                }
-            });
-
-        } catch (Exception e) {
-            log.error("Error in stream processing: {}", e.getMessage());
-            if (!readySignal.isDone()) {
-                readySignal.completeExceptionally(e);
-            }
-            stopStream(streamId);
-        }
-
-    }
-
-    public void stopStream(String streamId) {
-        StreamContext streamContext = redisHelper.getContext(streamId);
-        if (streamContext != null) {
-            fFmpegService.stopProcess(streamId);
-            streamContext.setActive(false);
-            redisHelper.saveContext(streamId, streamContext);
-
-            List<StorageService> services = storageServiceFactory.getStorageServices(streamContext.getStorageTypes());
-            services.forEach(item -> item.deleteStream(streamId));
-        }
-
-        //m3u8Service.clearStreamCache(streamId);
-
-        cleanupStreamDirectory(streamId);
-    }
-
-    private void cleanupStreamDirectory(String streamId) {
-        try {
-            Path streamDir = appSettings.resolvePath("streams", streamId);
-            if (Files.exists(streamDir)) {
-                Files.walk(streamDir)
-                        .sorted((a, b) -> -a.compareTo(b))
-                        .forEach(path -> {
-                            try {
-                                Files.deleteIfExists(path);
-                            } catch (Exception e) {
-                                log.warn("Failed to delete path: {}", path);
-                            }
-                        });
-            }
-        } catch (Exception e) {
-            log.error("Error cleaning up stream directory: {}", e.getMessage());
-        }
-    }
-
-    private void processSegment(String streamId, Path segmentPath, String segmentName, AtomicBoolean isReadyForWatch, CompletableFuture<Void> readySignal) {
-        try {
-            if (!Files.exists(segmentPath) || Files.size(segmentPath) == 0) {
-                log.warn("Skipping empty or non-existent segment: {}", segmentPath);
-                return;
-            }
-
-            List<CompletableFuture<String>> uploads = new ArrayList<>();
-            //List<StorageService> services = storageServiceFactory.getStoragesForStream(streamId);
-            StreamContext context = redisHelper.getContext(streamId);
-            if(streamId == null)
-                return;
-
-
-            List<StorageService> services = storageServiceFactory.getStorageServices(context.getStorageTypes());
-            for (StorageService service : services) {
-                uploads.add(service.uploadSegment(segmentPath, streamId));
-            }
-
-            CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0]))
-                    .thenRun(() -> {
-                        playlistService.addSegment(streamId, segmentName);
-                        if (isReadyForWatch.compareAndSet(false, true)) {
-                            readySignal.complete(null);
-                        }
-                        log.debug("Successfully processed segment: {}", segmentName);
-                    })
-                    .exceptionally(e -> {
-                        log.error("Error processing segment: {} - {}", segmentName, e.getMessage());
-                        return null;
-                    });
-
-        } catch (Exception e) {
-            log.error("Error processing segment: {} - {}", segmentName, e.getMessage());
-        }
-
-
-    }
-
-    private String getNextSegment (String path) {
-        final int readyIfSegmentCount = appSettings.getRequiredParams().getReadyIfSegmentCount();
-        Pattern pattern = Pattern.compile("segment_(\\d+)\\.ts");
-        Matcher matcher = pattern.matcher(path);
-
-        if (matcher.find()) {
-            int segmentNumber = Integer.parseInt(matcher.group(1)) + readyIfSegmentCount;
-            String newSegment = "segment_" + segmentNumber + ".ts";
-            return matcher.replaceFirst(newSegment);
-        }
-        return null;
-    }
-
-    private void setupWatchService(Path tempDir, WatchService watchService) throws IOException, InterruptedException {
-        final int readyIfSegmentCount = appSettings.getRequiredParams().getReadyIfSegmentCount();
-        for (int retry = 0; retry < readyIfSegmentCount; retry++) {
-            try {
-                tempDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
-                break;
-            } catch (Exception e) {
-                if (retry == readyIfSegmentCount - 1) {
-                    throw e;
-                }
-                log.warn("Failed to setup watch service, retrying in {} ms...", readyIfSegmentCount);
-                Thread.sleep(1000);
-            }
-        }
-    }
-}
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.model.StreamContext;
+import com.streameast.segmenter.model.Watermark;
+import com.streameast.segmenter.model.enums.IngestOutputMode;
+import com.streameast.segmenter.model.enums.IngestProtocol;
+import com.streameast.segmenter.model.enums.VideoQuality;
+import com.streameast.segmenter.service.impl.StorageServiceFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+@Slf4j
+@Service
+public class StreamService {
+
+    private static final Logger performanceLogger = LoggerFactory.getLogger("com.streameast.segmenter.performance");
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("segment_(\\d+)\\.ts");
+    private final RedisHelper redisHelper;
+    private final AppSettings appSettings;
+    private final FFmpegService fFmpegService;
+    private final StorageServiceFactory storageServiceFactory;
+    private final SegmentPipeline segmentPipeline;
+    private final PlaylistService playlistService;
+    private final MeterRegistry meterRegistry;
+    private final StreamCapacityService capacityService;
+    private final IngestPortPool ingestPortPool;
+
+    public StreamService(AppSettings appSettings, RedisHelper redisHelper, FFmpegService fFmpegService, StorageServiceFactory storageServiceFactory,
+                         SegmentPipeline segmentPipeline, PlaylistService playlistService, MeterRegistry meterRegistry,
+                         StreamCapacityService capacityService, IngestPortPool ingestPortPool) {
+        this.appSettings = appSettings;
+        this.redisHelper = redisHelper;
+        this.fFmpegService = fFmpegService;
+        this.storageServiceFactory = storageServiceFactory;
+        this.segmentPipeline = segmentPipeline;
+        this.playlistService = playlistService;
+        this.meterRegistry = meterRegistry;
+        this.capacityService = capacityService;
+        this.ingestPortPool = ingestPortPool;
+    }
+
+    public CompletableFuture<List<String>> startStream(String streamUrl, List<String> storageTypes, VideoQuality quality, Watermark watermark, LocalDateTime startTime, String id,
+                                                     Integer idleMinutes) {
+
+        String streamId = id != null ? id : UUID.randomUUID().toString();
+        long startTimeMs = System.currentTimeMillis();
+        try {
+            CompletableFuture<List<String>> resultFuture = new CompletableFuture<>();
+            CompletableFuture<Void> readySignal = new CompletableFuture<>();
+            StreamContext context = redisHelper.getContext(streamId);
+            boolean scheduleOnly = context == null && startTime != null && startTime.isAfter(LocalDateTime.now());
+            if (!scheduleOnly) {
+                capacityService.reserve(streamId, quality);
+            }
+            if( context == null) {
+                LocalDateTime now = LocalDateTime.now();
+                context = new StreamContext(streamId, streamUrl, storageServiceFactory.getAvailableStorageServices(storageTypes), quality, startTime == null ? now : startTime, watermark);
+                context.setIdleMinutes(idleMinutes);
+                redisHelper.saveContext(streamId, context);
+
+                if(startTime != null && startTime.isAfter(now)){
+                        context.setActive(true);
+                        redisHelper.saveContext(streamId, context);
+                        resultFuture.complete(Arrays.asList("Stream scheduled for " + startTime));
+                        return resultFuture;
+                }
+            }
+
+            final List<String> urlList = context.getUrls(appSettings.getRequiredParams().getServerUrl());
+
+            // Scheduled streams picked up ahead of time are pre-rolled: ingest and encoder run until
+            // the scheduled instant, but only segments started after it get published
+            LocalDateTime publishFrom = context.getStartTime();
+            boolean preRoll = publishFrom != null && publishFrom.isAfter(LocalDateTime.now());
+            long preRollSeconds = preRoll ? Duration.between(LocalDateTime.now(), publishFrom).toSeconds() : 0;
+            if (preRoll) {
+                log.info("Pre-rolling stream {} {} s before scheduled start", streamId, preRollSeconds);
+                if (!fFmpegService.probeSource(streamUrl)) {
+                    log.warn("Source probe failed for pre-rolled stream {}, starting encoder anyway", streamId);
+                }
+            }
+
+            processStream(streamId, streamUrl, readySignal, quality, watermark, preRoll ? publishFrom : null);
+
+            readySignal.orTimeout(60 + preRollSeconds, TimeUnit.SECONDS)
+                    .thenApply(v -> urlList)
+                    .whenComplete((urls, ex) -> {
+                        if (ex != null) {
+                            stopStream(streamId);
+                            resultFuture.completeExceptionally(
+                                    new RuntimeException("Failed to start stream within timeout", ex));
+                        } else {
+                            resultFuture.complete(urls);
+                            recordTimeToFirstSegment(streamId, preRoll, preRoll ? publishFrom : null, startTimeMs);
+                        }
+
+                        long duration = System.currentTimeMillis() - startTimeMs;
+                        log.info("Stream start process completed in {} ms for streamId: {}", duration, streamId);
+                    });
+            return resultFuture;
+
+        } catch (Exception e) {
+            long duration = System.currentTimeMillis() - startTimeMs;
+            log.error("Stream start failed in {} ms for streamId: {}", duration, streamId);
+            throw e;
+        }
+    }
+
+
+    // Returns right away with the context, the encoder can only connect once it knows the ingest url.
+    // Streams nobody pushes to are stopped after pushConnectTimeoutSeconds.
+    public StreamContext startPushStream(IngestProtocol protocol, List<String> storageTypes, VideoQuality quality, Watermark watermark) {
+        String streamId = UUID.randomUUID().toString();
+        long startTimeMs = System.currentTimeMillis();
+        capacityService.reserve(streamId, quality);
+        IngestPortPool.IngestEndpoint endpoint;
+        try {
+            endpoint = ingestPortPool.allocate(streamId, protocol);
+        } catch (RuntimeException e) {
+            capacityService.release(streamId);
+            throw e;
+        }
+
+        // The secret stays out of Redis, only the caller gets the real ingest url
+        StreamContext context = new StreamContext(streamId, IngestPortPool.redact(endpoint.listenUrl()),
+                storageServiceFactory.getAvailableStorageServices(storageTypes), quality, LocalDateTime.now(), watermark);
+        context.setIngestProtocol(protocol);
+        context.setIngestUrl(IngestPortPool.redact(endpoint.publicUrl()));
+        redisHelper.saveContext(streamId, context);
+        context.setIngestUrl(endpoint.publicUrl());
+
+        CompletableFuture<Void> readySignal = new CompletableFuture<>();
+        processStream(streamId, endpoint.listenUrl(), readySignal, quality, watermark, null);
+        readySignal.orTimeout(appSettings.getIngest().getPushConnectTimeoutSeconds(), TimeUnit.SECONDS)
+                .whenComplete((v, ex) -> {
+                    if (ex != null) {
+                        log.warn("No segment pushed to stream {} within {} s, stopping it",
+                                streamId, appSettings.getIngest().getPushConnectTimeoutSeconds());
+                        stopStream(streamId);
+                    } else {
+                        recordTimeToFirstSegment(streamId, false, null, startTimeMs);
+                    }
+                });
+        return context;
+    }
+
+    @Async
+    protected void processStream(String streamId, String streamUrl, CompletableFuture<Void> readySignal,
+                                 VideoQuality quality, Watermark watermark, LocalDateTime publishFrom) {
+
+        StreamContext context = redisHelper.getContext(streamId);
+        if(streamId == null)
+            return;
+
+        Path tempDir = appSettings.resolvePath("streams", streamId);
+        AtomicInteger preRollBoundary = new AtomicInteger(-1);
+
+        try {
+            Files.createDirectories(tempDir);
+            Path segmentPattern = tempDir.resolve("segment_%d.ts");
+
+            // Segments PUT over HTTP arrive complete, only segment files written to disk are worth tailing
+            AppSettings.UploadParams upload = appSettings.getUpload();
+            boolean streamUploads = upload.isStreamingEnabled()
+                    && appSettings.getIngest().getOutputMode() == IngestOutputMode.FILE
+                    && quality.getVideoBitrateKbps() >= upload.getStreamingMinVideoKbps();
+            long streamedSegmentBytes = !streamUploads ? 0
+                    : (quality.getVideoBitrateKbps() + quality.getAudioBitrateKbps()) * 125L * appSettings.getRequiredParams().getSegmentDuration();
+
+            // Watching starts before ffmpeg so the first segment can't be missed
+            segmentPipeline.open(streamId, tempDir, storageServiceFactory.getStorageServices(context.getStorageTypes()), streamedSegmentBytes,
+                    segmentName -> isPreRollSegment(segmentName, publishFrom, preRollBoundary),
+                    () -> readySignal.complete(null));
+
+            CompletableFuture<Void> ffmpegFuture = fFmpegService.startStreamProcessing(
+                    streamId, streamUrl, segmentPattern, quality, watermark);
+
+            if (publishFrom != null) {
+                long delayMs = Math.max(0, Duration.between(LocalDateTime.now(), publishFrom).toMillis());
+                CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS)
+                        .execute(() -> preRollBoundary.set(getLastSegmentNumber(tempDir)));
+            }
+
+            ffmpegFuture.whenComplete((v, ex) -> {
+                capacityService.release(streamId);
+                ingestPortPool.release(streamId);
+                segmentPipeline.close(streamId);
+                if (ex != null) {
+                    log.error("FFmpeg processing failed for stream {}: {}", streamId, ex.getMessage());
+                    //stopStream(streamId);
+                }
+            });
+
+        } catch (Exception e) {
+            log.error("Error in stream processing: {}", e.getMessage());
+            if (!readySignal.isDone()) {
+                readySignal.completeExceptionally(e);
+            }
+            stopStream(streamId);
+        }
+
+    }
+
+    public void stopStream(String streamId) {
+        capacityService.release(streamId);
+        ingestPortPool.release(streamId);
+        segmentPipeline.close(streamId);
+        playlistService.removeStream(streamId);
+        fFmpegService.stopProcess(streamId);
+        StreamContext streamContext = redisHelper.updateContext(streamId, context -> context.setActive(false));
+        if (streamContext != null) {
+            List<StorageService> services = storageServiceFactory.getStorageServices(streamContext.getStorageTypes());
+            services.forEach(item -> item.deleteStream(streamId));
+        }
+
+        //m3u8Service.clearStreamCache(streamId);
+
+        cleanupStreamDirectory(streamId);
+        fFmpegService.deleteLog(streamId);
+    }
+
+    private void cleanupStreamDirectory(String streamId) {
+        try {
+            // Staged and spilled segments live in separate directories
+            for (Path streamDir : appSettings.resolveAllPaths("streams", streamId)) {
+                if (Files.exists(streamDir)) {
+                    Files.walk(streamDir)
+                            .sorted((a, b) -> -a.compareTo(b))
+                            .forEach(path -> {
+                                try {
+                                    Files.deleteIfExists(path);
+                                } catch (Exception e) {
+                                    log.warn("Failed to delete path: {}", path);
+                                }
+                            });
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error cleaning up stream directory: {}", e.getMessage());
+        }
+    }
+
+    private boolean isPreRollSegment(String segmentName, LocalDateTime publishFrom, AtomicInteger preRollBoundary) {
+        if (publishFrom == null) {
+            return false;
+        }
+        if (LocalDateTime.now().isBefore(publishFrom)) {
+            return true;
+        }
+        Integer sequence = getSegmentNumber(segmentName);
+        return sequence != null && sequence <= preRollBoundary.get();
+    }
+
+    private int getLastSegmentNumber(Path dir) {
+        try (var files = Files.list(dir)) {
+            return files.map(path -> getSegmentNumber(path.getFileName().toString()))
+                    .filter(Objects::nonNull)
+                    .mapToInt(Integer::intValue)
+                    .max()
+                    .orElse(-1);
+        } catch (IOException e) {
+            log.warn("Failed to list segments in {}: {}", dir, e.getMessage());
+            return -1;
+        }
+    }
+
+    private Integer getSegmentNumber(String segmentName) {
+        Matcher matcher = SEGMENT_PATTERN.matcher(segmentName);
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : null;
+    }
+
+    private void recordTimeToFirstSegment(String streamId, boolean preRoll, LocalDateTime publishFrom, long requestTimeMs) {
+        // Measured from the scheduled instant for pre-rolled streams, from the start request otherwise
+        long referenceMs = publishFrom != null
+                ? publishFrom.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : requestTimeMs;
+        long elapsedMs = Math.max(0, System.currentTimeMillis() - referenceMs);
+
+        Timer.builder("segmenter.stream.first.segment")
+                .description("Time from stream start to the first playable segment")
+                .tag("mode", preRoll ? "preroll" : "cold")
+                .register(meterRegistry)
+                .record(elapsedMs, TimeUnit.MILLISECONDS);
+        performanceLogger.info("First playable segment after {} ms for streamId: {} (pre-roll: {})", elapsedMs, streamId, preRoll);
+    }
+}
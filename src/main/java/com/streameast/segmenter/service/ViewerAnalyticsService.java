@@ -0,0 +1,223 @@
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.model.HyperLogLog;
+import com.streameast.segmenter.model.ViewerStats;
+import com.streameast.segmenter.util.AppConstants;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Viewer counts from playlist polls. The request path only hashes the session and touches striped
+// counters and CAS-updated sketches; sessions reach Redis in batches, where a multi-key PFCOUNT
+// combines the HyperLogLogs every node wrote into cluster wide counts.
+@Slf4j
+@Service
+public class ViewerAnalyticsService {
+
+    private static final String KEY_PREFIX = AppConstants.REDIS_INTERNAL_PREFIX + "viewers:";
+
+    private final AppSettings appSettings;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final MultiGauge concurrentViewers;
+    private final Map<String, Audience> audiences = new ConcurrentHashMap<>();
+
+    public ViewerAnalyticsService(AppSettings appSettings, StringRedisTemplate stringRedisTemplate, MeterRegistry meterRegistry) {
+        this.appSettings = appSettings;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.concurrentViewers = MultiGauge.builder("segmenter.viewers.concurrent")
+                .description("Sessions polling a playlist on this node within the concurrent window")
+                .register(meterRegistry);
+    }
+
+    public void recordRequest(String streamId, String storageType, String clientAddress, String userAgent) {
+        AppSettings.AnalyticsParams settings = appSettings.getAnalytics();
+        if (!settings.isEnabled()) {
+            return;
+        }
+        String key = streamId + "/" + storageType.toLowerCase();
+        Audience audience = audiences.get(key);
+        if (audience == null) {
+            audience = audiences.computeIfAbsent(key, id -> new Audience(streamId, storageType.toLowerCase()));
+        }
+        audience.record(HyperLogLog.hash(clientAddress + '\n' + (userAgent != null ? userAgent : "")),
+                System.currentTimeMillis(), settings);
+    }
+
+    // Cluster wide counts, the union of the sketches of every node in Redis
+    public ViewerStats getStats(String streamId, String storageType) {
+        AppSettings.AnalyticsParams settings = appSettings.getAnalytics();
+        String prefix = KEY_PREFIX + streamId + ":" + storageType.toLowerCase() + ":";
+        long now = System.currentTimeMillis();
+
+        long bucket = now / TimeUnit.SECONDS.toMillis(settings.getBucketSeconds());
+        int windowBuckets = getWindowBuckets(settings);
+        List<String> concurrentKeys = new ArrayList<>();
+        for (long i = bucket - windowBuckets; i <= bucket; i++) {
+            concurrentKeys.add(prefix + "b:" + i);
+        }
+
+        long minute = TimeUnit.MILLISECONDS.toMinutes(now);
+        List<String> uniqueKeys = new ArrayList<>();
+        for (long i = minute - settings.getUniqueWindowMinutes() + 1; i <= minute; i++) {
+            uniqueKeys.add(prefix + "m:" + i);
+        }
+
+        String requests = stringRedisTemplate.opsForValue().get(prefix + "requests");
+        return ViewerStats.builder()
+                .streamId(streamId)
+                .storageType(storageType.toLowerCase())
+                .concurrentViewers(count(concurrentKeys))
+                .uniqueSessions(count(uniqueKeys))
+                .playlistRequests(requests != null ? Long.parseLong(requests) : 0)
+                .concurrentWindowSeconds(settings.getConcurrentWindowSeconds())
+                .uniqueWindowMinutes(settings.getUniqueWindowMinutes())
+                .build();
+    }
+
+    // Multi-key PFCOUNT: Redis counts the union of the sketches without writing anything
+    private long count(List<String> keys) {
+        Long count = stringRedisTemplate.opsForHyperLogLog().size(keys.toArray(new String[0]));
+        return count != null ? count : 0;
+    }
+
+    @Scheduled(fixedRate = 5, timeUnit = TimeUnit.SECONDS)
+    public void flush() {
+        AppSettings.AnalyticsParams settings = appSettings.getAnalytics();
+        long now = System.currentTimeMillis();
+        long bucketMs = TimeUnit.SECONDS.toMillis(settings.getBucketSeconds());
+        long idleMs = TimeUnit.MINUTES.toMillis(settings.getUniqueWindowMinutes());
+        Duration bucketTtl = Duration.ofMillis(bucketMs * (getWindowBuckets(settings) + 2));
+        Duration minuteTtl = Duration.ofMinutes(settings.getUniqueWindowMinutes() + 1L);
+
+        List<MultiGauge.Row<?>> rows = new ArrayList<>();
+        Iterator<Audience> iterator = audiences.values().iterator();
+        while (iterator.hasNext()) {
+            Audience audience = iterator.next();
+            if (now - audience.lastRequestMs > idleMs) {
+                iterator.remove();
+                meterRegistry.remove(audience.requestCounter);
+                continue;
+            }
+            rows.add(MultiGauge.Row.of(Tags.of("stream", audience.streamId, "storage", audience.storageType),
+                    audience, a -> a.estimateConcurrent(System.currentTimeMillis(), settings)));
+
+            try {
+                audience.flush(now, bucketMs, bucketTtl, minuteTtl);
+            } catch (Exception e) {
+                log.warn("Failed to flush viewer analytics of stream {}: {}", audience.streamId, e.getMessage());
+            }
+        }
+        concurrentViewers.register(rows, true);
+    }
+
+    private static int getWindowBuckets(AppSettings.AnalyticsParams settings) {
+        return Math.max(1, (settings.getConcurrentWindowSeconds() + settings.getBucketSeconds() - 1) / settings.getBucketSeconds());
+    }
+
+    private class Audience {
+        private final String streamId;
+        private final String storageType;
+        private final LongAdder requests = new LongAdder();
+        private final FunctionCounter requestCounter;
+        private long flushedRequests;
+        private volatile long lastRequestMs;
+
+        // Ring of per bucket sketches covering the concurrent window plus the current bucket
+        private final HyperLogLog[] sketches;
+        private final AtomicLongArray sketchBuckets;
+        // Sessions seen since the last flush, sent to Redis with PFADD
+        private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+        private Audience(String streamId, String storageType) {
+            this.streamId = streamId;
+            this.storageType = storageType;
+            int slots = getWindowBuckets(appSettings.getAnalytics()) + 1;
+            this.sketches = new HyperLogLog[slots];
+            this.sketchBuckets = new AtomicLongArray(slots);
+            for (int i = 0; i < slots; i++) {
+                sketches[i] = new HyperLogLog();
+                sketchBuckets.set(i, -1);
+            }
+            this.requestCounter = FunctionCounter.builder("segmenter.viewers.requests", requests, LongAdder::sum)
+                    .description("Playlist requests served by this node")
+                    .tags("stream", streamId, "storage", storageType)
+                    .register(meterRegistry);
+        }
+
+        private void record(long session, long now, AppSettings.AnalyticsParams settings) {
+            requests.increment();
+            lastRequestMs = now;
+
+            long bucket = now / TimeUnit.SECONDS.toMillis(settings.getBucketSeconds());
+            int slot = (int) (bucket % sketches.length);
+            long slotBucket = sketchBuckets.get(slot);
+            // The first writer of a new bucket recycles the slot
+            if (slotBucket < bucket && sketchBuckets.compareAndSet(slot, slotBucket, bucket)) {
+                sketches[slot].clear();
+            }
+            sketches[slot].add(session);
+            pending.add(session);
+        }
+
+        private long estimateConcurrent(long now, AppSettings.AnalyticsParams settings) {
+            long bucket = now / TimeUnit.SECONDS.toMillis(settings.getBucketSeconds());
+            List<HyperLogLog> window = new ArrayList<>();
+            for (int i = 0; i < sketches.length; i++) {
+                if (bucket - sketchBuckets.get(i) < sketches.length) {
+                    window.add(sketches[i]);
+                }
+            }
+            return window.isEmpty() ? 0 : HyperLogLog.estimate(window);
+        }
+
+        // Only called from the scheduler thread
+        private void flush(long now, long bucketMs, Duration bucketTtl, Duration minuteTtl) {
+            List<String> sessions = new ArrayList<>();
+            Iterator<Long> iterator = pending.iterator();
+            while (iterator.hasNext()) {
+                sessions.add(Long.toHexString(iterator.next()));
+                iterator.remove();
+            }
+            long total = requests.sum();
+            long newRequests = total - flushedRequests;
+            flushedRequests = total;
+            if (sessions.isEmpty() && newRequests == 0) {
+                return;
+            }
+
+            String prefix = KEY_PREFIX + streamId + ":" + storageType + ":";
+            String bucketKey = prefix + "b:" + now / bucketMs;
+            String minuteKey = prefix + "m:" + TimeUnit.MILLISECONDS.toMinutes(now);
+            String[] values = sessions.toArray(new String[0]);
+            if (values.length > 0) {
+                stringRedisTemplate.opsForHyperLogLog().add(bucketKey, values);
+                stringRedisTemplate.expire(bucketKey, bucketTtl);
+                stringRedisTemplate.opsForHyperLogLog().add(minuteKey, values);
+                stringRedisTemplate.expire(minuteKey, minuteTtl);
+            }
+            if (newRequests > 0) {
+                stringRedisTemplate.opsForValue().increment(prefix + "requests", newRequests);
+                stringRedisTemplate.expire(prefix + "requests", minuteTtl);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.model.StreamContext;
+import com.streameast.segmenter.util.AppConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Suspends encoders nobody watches and resumes them on the next playlist request. Players may poll
+// any node, so every node reports requests to Redis and the node running the encoder decides.
+// Each stream may bring its own idle period; demand.idleSeconds applies to the others.
+@Slf4j
+@Service
+public class ViewerDemandService {
+
+    private static final String DEMAND_KEY_PREFIX = AppConstants.REDIS_INTERNAL_PREFIX + "demand:";
+    private static final long STALE_DEMAND_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final long DEMAND_KEY_TTL_SECONDS = TimeUnit.DAYS.toSeconds(1);
+
+    private final AppSettings appSettings;
+    private final FFmpegService fFmpegService;
+    private final RedisHelper redisHelper;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Map<String, Demand> demands = new ConcurrentHashMap<>();
+
+    public ViewerDemandService(AppSettings appSettings, FFmpegService fFmpegService, RedisHelper redisHelper,
+                               StringRedisTemplate stringRedisTemplate) {
+        this.appSettings = appSettings;
+        this.fFmpegService = fFmpegService;
+        this.redisHelper = redisHelper;
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    // Playlist hot path: a timestamp, and one Redis write per stream and report interval on this node
+    public void recordRequest(String streamId) {
+        AppSettings.DemandParams settings = appSettings.getDemand();
+        long now = System.currentTimeMillis();
+        Demand demand = demands.computeIfAbsent(streamId, id -> new Demand(now));
+        demand.lastRequestMs = now;
+
+        // Encoder on this node: resume without waiting for the sweep
+        if (fFmpegService.isSuspended(streamId)) {
+            resume(streamId, demand, now);
+        }
+
+        long reported = demand.lastReportedMs.get();
+        if (now - reported >= TimeUnit.SECONDS.toMillis(settings.getReportIntervalSeconds())
+                && demand.lastReportedMs.compareAndSet(reported, now)) {
+            try {
+                stringRedisTemplate.opsForValue().set(DEMAND_KEY_PREFIX + streamId, String.valueOf(now),
+                        Duration.ofSeconds(DEMAND_KEY_TTL_SECONDS));
+            } catch (Exception e) {
+                log.warn("Failed to report demand for stream {}: {}", streamId, e.getMessage());
+            }
+        }
+    }
+
+    @Scheduled(fixedRate = 1, timeUnit = TimeUnit.SECONDS)
+    public void suspendIdleStreams() {
+        long now = System.currentTimeMillis();
+        List<String> streamIds = new ArrayList<>(fFmpegService.getSuspendableStreamIds());
+        List<String> reported = streamIds.isEmpty() ? List.of() : readReportedDemand(streamIds);
+
+        for (int i = 0; i < streamIds.size(); i++) {
+            String streamId = streamIds.get(i);
+            // A stream counts as requested when this node first sees it
+            Demand demand = demands.computeIfAbsent(streamId, id -> new Demand(now));
+            if (demand.idleMs < 0) {
+                demand.idleMs = loadIdleMs(streamId);
+            }
+            String remote = i < reported.size() ? reported.get(i) : null;
+            long lastRequestMs = Math.max(demand.lastRequestMs, remote != null ? Long.parseLong(remote) : 0);
+
+            if (fFmpegService.isSuspended(streamId)) {
+                if (lastRequestMs > demand.suspendedAtMs) {
+                    resume(streamId, demand, now);
+                }
+            } else if (demand.idleMs > 0 && now - lastRequestMs >= demand.idleMs && fFmpegService.suspend(streamId)) {
+                demand.suspendedAtMs = now;
+                log.info("Suspended encoder of stream {}, no playlist requests for {} s", streamId, (now - lastRequestMs) / 1000);
+            }
+        }
+
+        // Streams this node doesn't encode are only tracked while they are requested
+        Set<String> supervised = Set.copyOf(streamIds);
+        demands.entrySet().removeIf(entry -> !supervised.contains(entry.getKey())
+                && now - entry.getValue().lastRequestMs > STALE_DEMAND_MS);
+    }
+
+    // Idle period of the stream in ms, 0 if it never suspends
+    private long loadIdleMs(String streamId) {
+        StreamContext context = redisHelper.getContext(streamId);
+        if (context != null && context.getIdleMinutes() != null) {
+            return TimeUnit.MINUTES.toMillis(Math.max(0, context.getIdleMinutes()));
+        }
+        return TimeUnit.SECONDS.toMillis(Math.max(0, appSettings.getDemand().getIdleSeconds()));
+    }
+
+    private void resume(String streamId, Demand demand, long now) {
+        if (fFmpegService.resume(streamId)) {
+            demand.suspendedAtMs = now;
+            log.info("Resumed encoder of stream {} on viewer demand", streamId);
+        }
+    }
+
+    private List<String> readReportedDemand(List<String> streamIds) {
+        try {
+            List<String> values = stringRedisTemplate.opsForValue()
+                    .multiGet(streamIds.stream().map(id -> DEMAND_KEY_PREFIX + id).toList());
+            return values != null ? values : List.of();
+        } catch (Exception e) {
+            log.warn("Failed to read reported demand: {}", e.getMessage());
+            return List.of();
+        }
+    }
+
+    private static class Demand {
+        private volatile long lastRequestMs;
+        private volatile long suspendedAtMs;
+        // Loaded from the context by the sweep, -1 until then
+        private volatile long idleMs = -1;
+        private final AtomicLong lastReportedMs = new AtomicLong();
+
+        private Demand(long lastRequestMs) {
+            this.lastRequestMs = lastRequestMs;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.streameast.segmenter.service;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.model.Watermark;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Renders each distinct watermark once into a transparent PNG, ready for a plain overlay. Assets are
+// named by the hash of everything that affects their pixels, so streams with the same watermark share
+// one file and restarts reuse it. Sizes are in output pixels like the drawtext and scale filters they
+// replace, so one asset serves every quality.
+@Slf4j
+@Service
+public class WatermarkAssetService {
+
+    // Part of every asset hash, bump when rendering changes
+    private static final String RENDER_VERSION = "1";
+    private static final Map<String, Integer> COLOR_NAMES = Map.ofEntries(
+            Map.entry("white", 0xFFFFFF), Map.entry("black", 0x000000), Map.entry("red", 0xFF0000),
+            Map.entry("green", 0x008000), Map.entry("lime", 0x00FF00), Map.entry("blue", 0x0000FF),
+            Map.entry("yellow", 0xFFFF00), Map.entry("cyan", 0x00FFFF), Map.entry("magenta", 0xFF00FF),
+            Map.entry("gray", 0x808080), Map.entry("grey", 0x808080), Map.entry("silver", 0xC0C0C0),
+            Map.entry("orange", 0xFFA500));
+
+    private final AppSettings appSettings;
+    private final Map<String, Path> assets = new ConcurrentHashMap<>();
+
+    public WatermarkAssetService(AppSettings appSettings) {
+        this.appSettings = appSettings;
+    }
+
+    // The watermark's pre-rendered PNG, null if it has to be drawn by ffmpeg filters
+    public Path getAsset(Watermark watermark) {
+        if (watermark == null || !appSettings.getEncoder().isPrerenderWatermarks()) {
+            return null;
+        }
+        try {
+            String key = assetKey(watermark);
+            if (key == null) {
+                return null;
+            }
+            // Concurrent starts with the same watermark render it once
+            return assets.compute(key, (hash, existing) ->
+                    existing != null && Files.exists(existing) ? existing : render(watermark, hash));
+        } catch (Exception e) {
+            log.warn("Failed to pre-render watermark, falling back to ffmpeg filters: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private String assetKey(Watermark watermark) throws IOException {
+        StringBuilder key = new StringBuilder(RENDER_VERSION);
+        if (StringUtils.isNotEmpty(watermark.getImagePath())) {
+            key.append("|image|").append(sha256(Files.readAllBytes(Path.of(watermark.getImagePath()))));
+        } else if (StringUtils.isNotEmpty(watermark.getText())) {
+            // Expansions such as %{localtime} change every frame, only drawtext can render them
+            if (watermark.getText().contains("%{") || parseColor(watermark.getColor()) == null) {
+                return null;
+            }
+            key.append("|text|").append(watermark.getText()).append('|').append(watermark.getColor());
+        } else {
+            return null;
+        }
+        key.append('|').append(watermark.getSize()).append('|').append(watermark.getOpacity());
+        return sha256(key.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Path render(Watermark watermark, String hash) {
+        Path target = appSettings.resolvePersistentPath("watermarks", hash + ".png");
+        if (Files.exists(target)) {
+            return target;
+        }
+
+        long startTime = System.currentTimeMillis();
+        try {
+            BufferedImage image = StringUtils.isNotEmpty(watermark.getImagePath())
+                    ? renderImage(watermark)
+                    : renderText(watermark);
+
+            Files.createDirectories(target.getParent());
+            Path partial = target.resolveSibling(UUID.randomUUID() + ".part");
+            ImageIO.write(image, "png", partial.toFile());
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to render watermark " + hash, e);
+        }
+        log.info("Rendered watermark asset {} in {} ms", target.getFileName(), System.currentTimeMillis() - startTime);
+        return target;
+    }
+
+    // Same result as scale=-1:size,format=rgba,colorchannelmixer=aa=opacity
+    private BufferedImage renderImage(Watermark watermark) throws IOException {
+        BufferedImage source = ImageIO.read(Path.of(watermark.getImagePath()).toFile());
+        if (source == null) {
+            throw new IOException("Unsupported image format: " + watermark.getImagePath());
+        }
+        int height = Math.max(1, watermark.getSize());
+        int width = Math.max(1, Math.round((float) source.getWidth() * height / source.getHeight()));
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, clampOpacity(watermark)));
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    // Same result as drawtext with fontsize=size and fontcolor=color@opacity, x/y at the top left of the text
+    private BufferedImage renderText(Watermark watermark) {
+        Font font = new Font(Font.SANS_SERIF, Font.PLAIN, Math.max(1, watermark.getSize()));
+        FontMetrics metrics = measure(font);
+        int width = Math.max(1, metrics.stringWidth(watermark.getText()));
+        int height = Math.max(1, metrics.getAscent() + metrics.getDescent());
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+            graphics.setFont(font);
+            Color color = parseColor(watermark.getColor());
+            graphics.setColor(new Color(color.getRed(), color.getGreen(), color.getBlue(),
+                    Math.round(color.getAlpha() * clampOpacity(watermark))));
+            graphics.drawString(watermark.getText(), 0, metrics.getAscent());
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    private static FontMetrics measure(Font font) {
+        Graphics2D graphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+            return graphics.getFontMetrics(font);
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    private static float clampOpacity(Watermark watermark) {
+        return Math.max(0f, Math.min(1f, watermark.getOpacity()));
+    }
+
+    // ffmpeg color syntax: a name, #RRGGBB[AA] or 0xRRGGBB[AA]; null if not understood here
+    private static Color parseColor(String value) {
+        if (value == null) {
+            return null;
+        }
+        String color = value.trim().toLowerCase(Locale.ROOT);
+        String hex = color.startsWith("#") ? color.substring(1) : color.startsWith("0x") ? color.substring(2) : null;
+        if (hex == null) {
+            Integer rgb = COLOR_NAMES.get(color);
+            return rgb == null ? null : new Color(rgb);
+        }
+        if (!hex.matches("[0-9a-f]{6}([0-9a-f]{2})?")) {
+            return null;
+        }
+        int rgb = Integer.parseInt(hex.substring(0, 6), 16);
+        int alpha = hex.length() == 8 ? Integer.parseInt(hex.substring(6), 16) : 0xFF;
+        return new Color((alpha << 24) | rgb, true);
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.streameast.segmenter.service.impl;
 
 import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.service.SegmentTail;
 import com.streameast.segmenter.service.StorageService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -11,15 +12,24 @@ import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
 import software.amazon.awssdk.services.s3.model.Delete;
 import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
@@ -31,13 +41,20 @@ public class AwsStorageService implements StorageService {
     private final S3Client s3Client;
     private final String bucket;
     private final ThreadPoolTaskExecutor storageExecutor;
+    private final ThreadPoolTaskExecutor segmentTailExecutor;
     private static final int MAX_RETRIES = 3;
     private static final int WAIT_TIME_MS = 500;
+    // DeleteObjects accepts up to 1000 keys per request
+    private static final int DELETE_BATCH_SIZE = 1000;
+    // Smallest part S3 accepts except for the last one
+    private static final int MULTIPART_PART_SIZE = 5 * 1024 * 1024;
 
     public AwsStorageService(AppSettings appSettings,
-                             @Qualifier("storageTaskExecutor") ThreadPoolTaskExecutor storageExecutor) {
+                             @Qualifier("storageTaskExecutor") ThreadPoolTaskExecutor storageExecutor,
+                             @Qualifier("segmentTailExecutor") ThreadPoolTaskExecutor segmentTailExecutor) {
         this.bucket = appSettings.getStorage().getAws().getAwsBucket();
         this.storageExecutor = storageExecutor;
+        this.segmentTailExecutor = segmentTailExecutor;
         this.s3Client = S3Client.builder()
                 .region(Region.US_EAST_1)
                 .credentialsProvider(() -> AwsBasicCredentials.create(
@@ -90,6 +107,105 @@ public class AwsStorageService implements StorageService {
         }, storageExecutor);
     }
 
+    @Override
+    public CompletableFuture<String> uploadSegment(byte[] content, String segmentName, String streamId) {
+        return CompletableFuture.supplyAsync(() -> {
+            String key = String.format("%s/%s", streamId, segmentName);
+            PutObjectRequest request = PutObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .build();
+
+            Exception lastException = null;
+            for (int retries = 0; retries < MAX_RETRIES; retries++) {
+                try {
+                    // The segment is complete already, only retries wait
+                    if (retries > 0) {
+                        Thread.sleep(WAIT_TIME_MS * retries);
+                    }
+                    s3Client.putObject(request, RequestBody.fromBytes(content));
+                    log.info("Successfully uploaded segment to S3: {} (size: {} bytes)", key, content.length);
+                    return getSegmentUrl(streamId, segmentName);
+                } catch (Exception e) {
+                    lastException = e;
+                    log.warn("Retry {}/{} - Error uploading to S3: {} - {}",
+                            retries + 1, MAX_RETRIES, key, e.getMessage());
+                }
+            }
+
+            log.error("Failed to upload after {} retries: {} - {}",
+                    MAX_RETRIES, key, lastException.getMessage());
+            throw new RuntimeException("Failed to upload to S3 after " + MAX_RETRIES + " retries", lastException);
+        }, storageExecutor);
+    }
+
+    // Multipart upload fed while ffmpeg writes the segment: every full part goes up as soon as it is
+    // written, only the remainder is left when the segment closes. The object appears on completion.
+    // Segments that fit in one part would only pay create and complete round trips on top of the
+    // part, they get the single PUT once closed.
+    @Override
+    public CompletableFuture<String> uploadSegment(SegmentTail tail, String streamId) {
+        if (tail.getExpectedBytes() <= MULTIPART_PART_SIZE) {
+            return tail.whenComplete().thenCompose(v -> uploadSegment(tail.getPath(), streamId));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            String key = String.format("%s/%s", streamId, tail.getSegmentName());
+            String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .contentType("video/MP2T")
+                    .build()).uploadId();
+
+            try (InputStream segment = tail.open()) {
+                List<CompletedPart> parts = new ArrayList<>();
+                byte[] buffer = new byte[MULTIPART_PART_SIZE];
+                long size = 0;
+                while (true) {
+                    int filled = segment.readNBytes(buffer, 0, buffer.length);
+                    if (filled > 0) {
+                        int partNumber = parts.size() + 1;
+                        String eTag = s3Client.uploadPart(UploadPartRequest.builder()
+                                        .bucket(bucket)
+                                        .key(key)
+                                        .uploadId(uploadId)
+                                        .partNumber(partNumber)
+                                        .build(),
+                                RequestBody.fromInputStream(new ByteArrayInputStream(buffer, 0, filled), filled)).eTag();
+                        parts.add(CompletedPart.builder().partNumber(partNumber).eTag(eTag).build());
+                        size += filled;
+                    }
+                    if (filled < buffer.length) {
+                        break;
+                    }
+                }
+                if (parts.isEmpty()) {
+                    throw new RuntimeException("Segment is empty: " + tail.getPath());
+                }
+
+                s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                        .build());
+                log.info("Successfully streamed segment to S3: {} (size: {} bytes, {} parts)", key, size, parts.size());
+                return getSegmentUrl(streamId, tail.getSegmentName());
+            } catch (Exception e) {
+                try {
+                    s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .uploadId(uploadId)
+                            .build());
+                } catch (Exception abortError) {
+                    log.warn("Failed to abort multipart upload {} of {}: {}", uploadId, key, abortError.getMessage());
+                }
+                log.error("Error streaming to S3: {} - {}", key, e.getMessage());
+                throw new RuntimeException("Failed to stream to S3", e);
+            }
+        }, segmentTailExecutor);
+    }
+
     @Override
     public void deleteStream(String streamId) {
         CompletableFuture.runAsync(() -> {
@@ -134,6 +250,26 @@ public class AwsStorageService implements StorageService {
         }, storageExecutor);
     }
 
+    @Override
+    public void deleteSegments(String streamId, List<String> segmentNames) {
+        CompletableFuture.runAsync(() -> {
+            for (int from = 0; from < segmentNames.size(); from += DELETE_BATCH_SIZE) {
+                List<ObjectIdentifier> objects = segmentNames.subList(from, Math.min(from + DELETE_BATCH_SIZE, segmentNames.size()))
+                        .stream()
+                        .map(name -> ObjectIdentifier.builder().key(streamId + "/" + name).build())
+                        .toList();
+                try {
+                    s3Client.deleteObjects(DeleteObjectsRequest.builder()
+                            .bucket(bucket)
+                            .delete(Delete.builder().objects(objects).quiet(true).build())
+                            .build());
+                    log.debug("Deleted {} expired segments from S3 for stream {}", objects.size(), streamId);
+                } catch (Exception e) {
+                    log.error("Error deleting expired segments from S3 for stream {}: {}", streamId, e.getMessage());
+                }
+            }
+        }, storageExecutor);
+    }
 
     @Override
     public String getSegmentUrl(String streamId, String segmentName) {
@@ -1,8 +1,15 @@
 package com.streameast.segmenter.service.impl;
 
+import com.azure.core.http.rest.Response;
+import com.azure.core.util.BinaryData;
 import com.azure.storage.blob.BlobContainerClient;
 import com.azure.storage.blob.BlobServiceClient;
 import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.azure.storage.blob.batch.BlobBatchClient;
+import com.azure.storage.blob.batch.BlobBatchClientBuilder;
+import com.azure.storage.blob.models.BlobItem;
+import com.azure.storage.blob.models.DeleteSnapshotsOptionType;
+import com.azure.storage.blob.models.ListBlobsOptions;
 import com.streameast.segmenter.config.AppSettings;
 import com.streameast.segmenter.service.StorageService;
 import lombok.extern.slf4j.Slf4j;
@@ -12,6 +19,7 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 @Slf4j
@@ -19,7 +27,11 @@ import java.util.concurrent.CompletableFuture;
 @ConditionalOnProperty(prefix = "storage.azure", name = "enabled", havingValue = "true")
 public class AzureStorageService implements StorageService {
 
+    // A blob batch request carries at most 256 sub-requests
+    private static final int DELETE_BATCH_SIZE = 256;
+
     private final BlobContainerClient containerClient;
+    private final BlobBatchClient batchClient;
     private final String containerName;
     private final ThreadPoolTaskExecutor storageExecutor;
 
@@ -31,6 +43,7 @@ public class AzureStorageService implements StorageService {
                 .connectionString(appSettings.getStorage().getAzure().getAzureConnectionString())
                 .buildClient();
         this.containerClient = blobServiceClient.getBlobContainerClient(containerName);
+        this.batchClient = new BlobBatchClientBuilder(containerClient).buildClient();
     }
 
     @Override
@@ -49,27 +62,67 @@ public class AzureStorageService implements StorageService {
         }, storageExecutor);
     }
 
+    @Override
+    public CompletableFuture<String> uploadSegment(byte[] content, String segmentName, String streamId) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                String blobName = String.format("%s/%s", streamId, segmentName);
+                containerClient.getBlobClient(blobName)
+                        .upload(BinaryData.fromBytes(content), true);
+
+                return getSegmentUrl(streamId, segmentName);
+            } catch (Exception e) {
+                log.error("Error uploading to Azure: {}", e.getMessage());
+                throw new RuntimeException("Failed to upload to Azure", e);
+            }
+        }, storageExecutor);
+    }
+
     @Override
     public void deleteStream(String streamId) {
         CompletableFuture.runAsync(() -> {
             try {
-                containerClient.listBlobs()
+                // Listed server side by prefix, only this stream's blobs are transferred
+                List<String> blobUrls = containerClient.listBlobs(new ListBlobsOptions().setPrefix(streamId + "/"), null)
                         .stream()
-                        .filter(item -> item.getName().startsWith(streamId))
-                        .forEach(item -> {
-                            try {
-                                containerClient.getBlobClient(item.getName()).delete();
-                                log.info("Deleted Azure blob: {}", item.getName());
-                            } catch (Exception e) {
-                                log.error("Error deleting blob {}: {}", item.getName(), e.getMessage());
-                            }
-                        });
+                        .map(BlobItem::getName)
+                        .map(name -> containerClient.getBlobClient(name).getBlobUrl())
+                        .toList();
+                deleteInBatches(blobUrls);
+                log.info("Deleted {} Azure blobs for stream {}", blobUrls.size(), streamId);
             } catch (Exception e) {
                 log.error("Error deleting from Azure: {}", e.getMessage());
             }
         }, storageExecutor);
     }
 
+    @Override
+    public void deleteSegments(String streamId, List<String> segmentNames) {
+        CompletableFuture.runAsync(() -> {
+            List<String> blobUrls = segmentNames.stream()
+                    .map(name -> getSegmentUrl(streamId, name))
+                    .toList();
+            deleteInBatches(blobUrls);
+            log.debug("Deleted {} expired segments from Azure for stream {}", blobUrls.size(), streamId);
+        }, storageExecutor);
+    }
+
+    private void deleteInBatches(List<String> blobUrls) {
+        for (int from = 0; from < blobUrls.size(); from += DELETE_BATCH_SIZE) {
+            List<String> batch = blobUrls.subList(from, Math.min(from + DELETE_BATCH_SIZE, blobUrls.size()));
+            try {
+                for (Response<Void> response : batchClient.deleteBlobs(batch, DeleteSnapshotsOptionType.INCLUDE)) {
+                    if (response.getStatusCode() >= 300) {
+                        log.debug("Azure batch delete returned {} for {}", response.getStatusCode(), response.getRequest().getUrl());
+                    }
+                }
+            } catch (Exception e) {
+                // Sub-requests for blobs that are already gone fail the batch result, the rest is deleted
+                log.warn("Azure batch delete of {} blobs reported errors: {}", batch.size(), e.getMessage());
+            }
+        }
+    }
+
     @Override
     public String getSegmentUrl(String streamId, String segmentName) {
         return containerClient.getBlobClient(String.format("%s/%s", streamId, segmentName))
@@ -1,6 +1,7 @@
 package com.streameast.segmenter.service.impl;
 
 import com.google.auth.oauth2.ServiceAccountCredentials;
+import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.BlobInfo;
@@ -11,6 +12,7 @@ import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageOptions;
 import com.google.common.collect.ImmutableList;
 import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.service.SegmentTail;
 import com.streameast.segmenter.service.StorageService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -21,6 +23,7 @@ import org.springframework.stereotype.Service;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -32,13 +35,19 @@ import java.util.concurrent.CompletableFuture;
 @ConditionalOnProperty(prefix = "storage.gcp", name = "enabled", havingValue = "true")
 public class GcpStorageService implements StorageService {
 
+    // Resumable upload chunks must be a multiple of 256 KiB
+    private static final int RESUMABLE_CHUNK_SIZE = 256 * 1024;
+
     private final Storage storage;
     private final String bucketName;
     private final String projectId;
     private final ThreadPoolTaskExecutor storageExecutor;
+    private final ThreadPoolTaskExecutor segmentTailExecutor;
 
-    public GcpStorageService(AppSettings appSettings, @Qualifier("storageTaskExecutor") ThreadPoolTaskExecutor storageExecutor) {
+    public GcpStorageService(AppSettings appSettings, @Qualifier("storageTaskExecutor") ThreadPoolTaskExecutor storageExecutor,
+                             @Qualifier("segmentTailExecutor") ThreadPoolTaskExecutor segmentTailExecutor) {
         this.storageExecutor = storageExecutor;
+        this.segmentTailExecutor = segmentTailExecutor;
         this.bucketName = appSettings.getStorage().getGcp().getGcpBucket();
         this.projectId = appSettings.getStorage().getGcp().getGcpProjectId();
 
@@ -94,6 +103,56 @@ public class GcpStorageService implements StorageService {
         }, storageExecutor);
     }
 
+    @Override
+    public CompletableFuture<String> uploadSegment(byte[] content, String segmentName, String streamId) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                String objectName = String.format("%s/%s", streamId, segmentName);
+                BlobInfo blobInfo = BlobInfo.newBuilder(BlobId.of(bucketName, objectName))
+                        .setContentType("video/MP2T")
+                        .build();
+
+                storage.create(blobInfo, content);
+                log.info("Successfully uploaded to GCP: {}", objectName);
+                return getSegmentUrl(streamId, segmentName);
+            } catch (Exception e) {
+                log.error("Error uploading to GCP: {}", e.getMessage());
+                throw new RuntimeException("Failed to upload to GCP", e);
+            }
+        }, storageExecutor);
+    }
+
+    // Resumable upload fed while ffmpeg writes the segment. The object is only created when the writer
+    // is closed after the last byte, a failed upload leaves an unfinished session and no object.
+    @Override
+    public CompletableFuture<String> uploadSegment(SegmentTail tail, String streamId) {
+        return CompletableFuture.supplyAsync(() -> {
+            String objectName = String.format("%s/%s", streamId, tail.getSegmentName());
+            BlobInfo blobInfo = BlobInfo.newBuilder(BlobId.of(bucketName, objectName))
+                    .setContentType("video/MP2T")
+                    .build();
+
+            try (InputStream segment = tail.open()) {
+                WriteChannel writer = storage.writer(blobInfo);
+                writer.setChunkSize(RESUMABLE_CHUNK_SIZE);
+                byte[] buffer = new byte[RESUMABLE_CHUNK_SIZE];
+                int read;
+                while ((read = segment.read(buffer)) != -1) {
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                    while (chunk.hasRemaining()) {
+                        writer.write(chunk);
+                    }
+                }
+                writer.close();
+                log.info("Successfully streamed to GCP: {}", objectName);
+                return getSegmentUrl(streamId, tail.getSegmentName());
+            } catch (Exception e) {
+                log.error("Error streaming to GCP: {}", e.getMessage());
+                throw new RuntimeException("Failed to stream to GCP", e);
+            }
+        }, segmentTailExecutor);
+    }
+
     public void deleteStream(String streamId) {
         CompletableFuture.runAsync(() -> {
             try {
@@ -130,6 +189,24 @@ public class GcpStorageService implements StorageService {
         }, storageExecutor);
     }
 
+    @Override
+    public void deleteSegments(String streamId, List<String> segmentNames) {
+        CompletableFuture.runAsync(() -> {
+            List<BlobId> blobsToDelete = new ArrayList<>();
+            for (String segmentName : segmentNames) {
+                blobsToDelete.add(BlobId.of(bucketName, streamId + "/" + segmentName));
+                if (blobsToDelete.size() >= 100) {
+                    deleteBlobsInBatch(blobsToDelete);
+                    blobsToDelete.clear();
+                }
+            }
+            if (!blobsToDelete.isEmpty()) {
+                deleteBlobsInBatch(blobsToDelete);
+            }
+            log.debug("Deleted {} expired segments from GCP for stream {}", segmentNames.size(), streamId);
+        }, storageExecutor);
+    }
+
     private void deleteBlobsInBatch(List<BlobId> blobsToDelete) {
         try {
             storage.delete(blobsToDelete);
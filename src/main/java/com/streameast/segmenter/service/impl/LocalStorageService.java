@@ -1,6 +1,7 @@
 package com.streameast.segmenter.service.impl;
 
 import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.service.SegmentCache;
 import com.streameast.segmenter.service.StorageService;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
@@ -9,8 +10,10 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.concurrent.CompletableFuture;
 
 @Slf4j
@@ -20,19 +23,49 @@ public class LocalStorageService implements StorageService {
 
     private final AppSettings appSettings;
     private final ThreadPoolTaskExecutor storageExecutor;
+    private final SegmentCache segmentCache;
 
-    public LocalStorageService(AppSettings appSettings, @Qualifier("storageTaskExecutor") ThreadPoolTaskExecutor storageExecutor) {
+    public LocalStorageService(AppSettings appSettings, @Qualifier("storageTaskExecutor") ThreadPoolTaskExecutor storageExecutor,
+                               SegmentCache segmentCache) {
         this.appSettings = appSettings;
         this.storageExecutor = storageExecutor;
+        this.segmentCache = segmentCache;
     }
 
+    // The segment is served from disk already, publishing it only warms the segment cache
     @Override
     public CompletableFuture<String> uploadSegment(Path segmentPath, String streamId) {
-        return CompletableFuture.completedFuture(getSegmentUrl(streamId, segmentPath.getFileName().toString()));
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                segmentCache.put(streamId, segmentPath);
+            } catch (IOException e) {
+                log.warn("Failed to cache segment {}: {}", segmentPath, e.getMessage());
+            }
+            return getSegmentUrl(streamId, segmentPath.getFileName().toString());
+        }, storageExecutor);
+    }
+
+    // The local backend serves from disk, so received segments are written to the stream directory here
+    @Override
+    public CompletableFuture<String> uploadSegment(byte[] content, String segmentName, String streamId) {
+        return CompletableFuture.supplyAsync(() -> {
+            Path segmentPath = appSettings.resolvePath("streams", streamId, segmentName);
+            Path partial = segmentPath.resolveSibling(segmentName + ".part");
+            try {
+                Files.createDirectories(segmentPath.getParent());
+                Files.write(partial, content);
+                Files.move(partial, segmentPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write segment " + segmentPath, e);
+            }
+            segmentCache.put(streamId, segmentName, content);
+            return getSegmentUrl(streamId, segmentName);
+        }, storageExecutor);
     }
 
     @Override
     public void deleteStream(String streamId) {
+        segmentCache.evictStream(streamId);
         CompletableFuture.runAsync(() -> {
             try {
                 Path segmentPath = appSettings.resolvePath(streamId);
@@ -44,6 +77,11 @@ public class LocalStorageService implements StorageService {
         }, storageExecutor);
     }
 
+    @Override
+    public boolean isNodeLocal() {
+        return true;
+    }
+
     @Override
     public String getSegmentUrl(String streamId, String segmentName) {
         return String.format("%s/streams/%s/%s", appSettings.getRequiredParams().getServerUrl(), streamId, segmentName);
@@ -7,6 +7,12 @@ public final class AppConstants {
     public static final DateTimeFormatter DATE_FORMATTER =
             DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm");
     public static final int SEGMENT_PROCESSING_DELAY_MS = 500;
+    // Redis keys owned by the service itself, everything else is a StreamContext keyed by stream id
+    public static final String REDIS_INTERNAL_PREFIX = "segmenter:";
+    // Pub/sub channel carrying "streamId:sequence" whenever a stream publishes segments
+    public static final String SEGMENT_EVENTS_CHANNEL = REDIS_INTERNAL_PREFIX + "segments";
+    // Storage prefix of transcoded advertisements, they live next to the stream directories
+    public static final String ADVERTISEMENT_PREFIX = "ad-";
 
 
 }
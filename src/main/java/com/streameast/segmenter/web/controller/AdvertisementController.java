@@ -1,5 +1,6 @@
 package com.streameast.segmenter.web.controller;
 
+import com.streameast.segmenter.service.AdvertisementService;
 import com.streameast.segmenter.web.dto.AdvertisementRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -17,14 +18,14 @@ import org.springframework.web.multipart.MultipartFile;
 @RequestMapping("/api/advertisement")
 @RequiredArgsConstructor
 public class AdvertisementController {
-    //private final AdvertisementService advertisementService;
+    private final AdvertisementService advertisementService;
 
     @PostMapping("/insert")
     public ResponseEntity<String> insertAdvertisement(
             @RequestParam("file") MultipartFile file,
             @RequestParam("streamId") String streamId,
             @RequestParam("startSegment") Integer startSegment,
-            @RequestParam("duration") Integer duration,
+            @RequestParam(value = "duration", required = false) Integer duration,
             @RequestParam(value = "type", defaultValue = "VIDEO") String type) {
 
         try {
@@ -36,9 +37,9 @@ public class AdvertisementController {
                     .type(AdvertisementRequest.Type.valueOf(type.toUpperCase()))
                     .build();
 
-            //String result = advertisementService.insertAdvertisement(request);
-            //return ResponseEntity.ok(result);
-            return ResponseEntity.ok("Test");
+            return ResponseEntity.accepted().body(advertisementService.insertAdvertisement(request));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         } catch (Exception e) {
             log.error("Failed to insert advertisement", e);
             return ResponseEntity.internalServerError()
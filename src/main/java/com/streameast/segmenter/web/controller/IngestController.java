@@ -0,0 +1,58 @@
+package com.streameast.segmenter.web.controller;
+
+import com.streameast.segmenter.service.SegmentPipeline;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.regex.Pattern;
+
+// Receives segments ffmpeg PUTs in HTTP_PUT output mode. Only ffmpeg on this node may write here.
+@Slf4j
+@RestController
+@RequiredArgsConstructor
+public class IngestController {
+
+    private static final Pattern STREAM_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final Pattern SEGMENT_NAME_PATTERN = Pattern.compile("segment_\\d+\\.ts");
+
+    private final SegmentPipeline segmentPipeline;
+
+    @PutMapping("/ingest/{streamId}/{fileName:.+}")
+    public ResponseEntity<Void> putSegment(@PathVariable String streamId, @PathVariable String fileName,
+                                           HttpServletRequest request) throws IOException {
+        if (!InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (!STREAM_ID_PATTERN.matcher(streamId).matches()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        // The muxer's own playlist is drained and dropped
+        try (InputStream body = request.getInputStream()) {
+            if (!SEGMENT_NAME_PATTERN.matcher(fileName).matches()) {
+                body.transferTo(OutputStream.nullOutputStream());
+                return ResponseEntity.noContent().build();
+            }
+
+            // The segment is complete once the body ended, a dropped connection fails the read
+            byte[] content = body.readAllBytes();
+            if (content.length == 0) {
+                log.warn("Empty segment {} received for stream {}", fileName, streamId);
+                return ResponseEntity.badRequest().build();
+            }
+            return segmentPipeline.receive(streamId, fileName, content)
+                    ? ResponseEntity.status(HttpStatus.CREATED).build()
+                    : ResponseEntity.notFound().build();
+        }
+    }
+}
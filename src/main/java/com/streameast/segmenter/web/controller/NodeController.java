@@ -0,0 +1,21 @@
+package com.streameast.segmenter.web.controller;
+
+import com.streameast.segmenter.model.NodeCapacity;
+import com.streameast.segmenter.service.StreamCapacityService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/node")
+@RequiredArgsConstructor
+public class NodeController {
+    private final StreamCapacityService capacityService;
+
+    @GetMapping("/capacity")
+    public ResponseEntity<NodeCapacity> getCapacity() {
+        return ResponseEntity.ok(capacityService.getCapacity());
+    }
+}
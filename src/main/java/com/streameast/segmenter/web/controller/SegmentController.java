@@ -0,0 +1,163 @@
+package com.streameast.segmenter.web.controller;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.service.SegmentCache;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Origin endpoint for segments of the local storage backend. Segment names are never reused, so
+// responses are cacheable forever by players and CDNs.
+@Slf4j
+@RestController
+@RequiredArgsConstructor
+public class SegmentController {
+
+    private static final Pattern STREAM_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final Pattern SEGMENT_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-]+\\.ts");
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    // Tomcat hands these files to the kernel with sendfile once the servlet returns
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final AppSettings appSettings;
+    private final SegmentCache segmentCache;
+
+    @RequestMapping(value = "/streams/{streamId}/{segmentName:.+}", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public void getSegment(@PathVariable String streamId, @PathVariable String segmentName,
+                           HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!STREAM_ID_PATTERN.matcher(streamId).matches() || !SEGMENT_NAME_PATTERN.matcher(segmentName).matches()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        ByteBuffer cached = segmentCache.get(streamId, segmentName);
+        Path file = appSettings.resolvePath("streams", streamId, segmentName);
+        long length;
+        if (cached != null) {
+            length = cached.remaining();
+        } else if (Files.isRegularFile(file)) {
+            length = Files.size(file);
+        } else {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        response.setContentType("video/mp2t");
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+
+        ByteRange range = parseRange(request.getHeader(HttpHeaders.RANGE), length);
+        if (range == null) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        if (range.partial()) {
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + range.start() + "-" + range.end() + "/" + length);
+        }
+        response.setContentLengthLong(range.length());
+
+        if (RequestMethod.HEAD.name().equals(request.getMethod())) {
+            return;
+        }
+
+        if (cached != null) {
+            writeBuffer(cached, range, response);
+        } else if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, range.start());
+            request.setAttribute(SENDFILE_END, range.end() + 1);
+        } else {
+            writeFile(file, range, response);
+        }
+    }
+
+    private void writeBuffer(ByteBuffer buffer, ByteRange range, HttpServletResponse response) throws IOException {
+        buffer.position((int) range.start()).limit((int) range.end() + 1);
+        WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private void writeFile(Path file, ByteRange range, HttpServletResponse response) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = range.start();
+            long remaining = range.length();
+            while (remaining > 0) {
+                long written = channel.transferTo(position, remaining, out);
+                if (written <= 0) {
+                    break;
+                }
+                position += written;
+                remaining -= written;
+            }
+        }
+    }
+
+    // Single byte ranges only; multiple ranges or a malformed header get the whole segment (RFC 9110 14.2).
+    // Returns null for an unsatisfiable range.
+    private ByteRange parseRange(String header, long length) {
+        if (header == null) {
+            return new ByteRange(0, length - 1, false);
+        }
+        Matcher matcher = RANGE_PATTERN.matcher(header.trim());
+        if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+            return new ByteRange(0, length - 1, false);
+        }
+
+        try {
+            long start;
+            long end;
+            if (matcher.group(1).isEmpty()) {
+                // Suffix range: the last n bytes
+                long suffix = Long.parseLong(matcher.group(2));
+                if (suffix == 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(matcher.group(1));
+                end = matcher.group(2).isEmpty() ? length - 1 : Math.min(Long.parseLong(matcher.group(2)), length - 1);
+            }
+
+            if (start >= length || start > end) {
+                return null;
+            }
+            return new ByteRange(start, end, true);
+        } catch (NumberFormatException e) {
+            return new ByteRange(0, length - 1, false);
+        }
+    }
+
+    private record ByteRange(long start, long end, boolean partial) {
+        private long length() {
+            return end - start + 1;
+        }
+    }
+}
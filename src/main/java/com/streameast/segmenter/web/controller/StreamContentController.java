@@ -1,25 +1,89 @@
 package com.streameast.segmenter.web.controller;
 
+import com.streameast.segmenter.model.ViewerStats;
+import com.streameast.segmenter.model.enums.DvrPlaylistType;
+import com.streameast.segmenter.service.DvrService;
 import com.streameast.segmenter.service.PlaylistService;
+import com.streameast.segmenter.service.ViewerAnalyticsService;
+import com.streameast.segmenter.service.ViewerDemandService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Optional;
+
 @RestController
 @RequestMapping("/api/stream")
 @RequiredArgsConstructor
 public class StreamContentController {
     private final PlaylistService m3u8Service;
+    private final DvrService dvrService;
+    private final ViewerDemandService viewerDemandService;
+    private final ViewerAnalyticsService viewerAnalyticsService;
 
     @GetMapping("/{streamId}/{storageType}/playlist.m3u8")
     public ResponseEntity<String> getPlaylist(
             @PathVariable String streamId,
-            @PathVariable String storageType) {
+            @PathVariable String storageType,
+            HttpServletRequest request) {
+        Optional<String> content = m3u8Service.findPlaylistContent(streamId, storageType);
+        // Only streams that exist get demand and an audience, so arbitrary ids can't grow meters and Redis keys
+        if (content.isPresent()) {
+            viewerDemandService.recordRequest(streamId);
+            viewerAnalyticsService.recordRequest(streamId, storageType, request.getRemoteAddr(), request.getHeader(HttpHeaders.USER_AGENT));
+        }
         return ResponseEntity.ok()
                 .header("Content-Type", "application/vnd.apple.mpegurl")
-                .body(m3u8Service.getPlaylistContent(streamId, storageType));
+                .body(content.orElseGet(m3u8Service::getEmptyPlaylist));
+    }
+
+    @GetMapping("/{streamId}/{storageType}/master.m3u8")
+    public ResponseEntity<String> getMasterPlaylist(
+            @PathVariable String streamId,
+            @PathVariable String storageType) {
+        return m3u8Service.getMasterPlaylist(streamId, storageType)
+                .map(content -> ResponseEntity.ok()
+                        .header("Content-Type", "application/vnd.apple.mpegurl")
+                        .body(content))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    // Whole DVR window: a sliding live playlist by default, or a VOD snapshot of it
+    @GetMapping("/{streamId}/{storageType}/dvr.m3u8")
+    public ResponseEntity<String> getDvrPlaylist(
+            @PathVariable String streamId,
+            @PathVariable String storageType,
+            @RequestParam(defaultValue = "live") String type,
+            HttpServletRequest request) {
+        DvrPlaylistType playlistType;
+        try {
+            playlistType = DvrPlaylistType.valueOf(type.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        return dvrService.render(streamId, storageType, playlistType)
+                .map(content -> {
+                    viewerDemandService.recordRequest(streamId);
+                    viewerAnalyticsService.recordRequest(streamId, storageType, request.getRemoteAddr(), request.getHeader(HttpHeaders.USER_AGENT));
+                    return content;
+                })
+                .map(content -> ResponseEntity.ok()
+                        .header("Content-Type", "application/vnd.apple.mpegurl")
+                        .body(content))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    @GetMapping("/{streamId}/{storageType}/stats")
+    public ResponseEntity<ViewerStats> getViewerStats(
+            @PathVariable String streamId,
+            @PathVariable String storageType) {
+        return ResponseEntity.ok(viewerAnalyticsService.getStats(streamId, storageType));
     }
 }
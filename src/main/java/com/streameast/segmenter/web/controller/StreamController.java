@@ -1,61 +1,104 @@
-package com.streameast.segmenter.web.controller;
-
-import com.streameast.segmenter.service.StreamService;
-import com.streameast.segmenter.web.dto.StreamRequest;
-import lombok.RequiredArgsConstructor;
-import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.ResponseEntity;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestBody;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
-
-import java.util.List;
-import java.util.concurrent.TimeUnit;
-
-@Slf4j
-@RestController
-@RequestMapping("/api/stream")
-public class StreamController {
-
-    private final StreamService streamService;
-
-    public StreamController(StreamService streamService) {
-        this.streamService = streamService;
-    }
-
-    @PostMapping("/start")
-    public ResponseEntity<?> startStream(@RequestBody StreamRequest request) {
-        try {
-            List<String> urls = streamService.startStream(
-                    request.getStreamUrl(),
-                    request.getStorageTypes(),
-                    request.getVideoQuality(),
-                    request.getWatermark(),
-                    request.getStartTime(), null
-            ).get(60, TimeUnit.SECONDS);
-
-            return ResponseEntity.ok().body(urls);
-        } catch (Exception e) {
-            log.error("Failed to start stream", e);
-            return ResponseEntity.internalServerError()
-                    .body("Failed to start stream: " + e.getMessage());
-        }
-
-    }
-
-    @PostMapping("/stop/{streamId}")
-    public ResponseEntity<String> stopStream(@PathVariable String streamId) {
-        try {
-            streamService.stopStream(streamId);
-            //schedulerService.removeScheduledStream(streamId);
-            return ResponseEntity.ok("Stream stopped successfully");
-        } catch (Exception e) {
-            log.error("Failed to stop stream", e);
-            return ResponseEntity.internalServerError()
-                    .body("Failed to stop stream: " + e.getMessage());
-        }
-    }
-
-}
+package com.streameast.segmenter.web.controller;
+
+import com.streameast.segmenter.config.AppSettings;
+import com.streameast.segmenter.model.StreamContext;
+import com.streameast.segmenter.service.CapacityExceededException;
+import com.streameast.segmenter.service.StreamService;
+import com.streameast.segmenter.web.dto.PushStreamResponse;
+import com.streameast.segmenter.web.dto.StreamRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/stream")
+public class StreamController {
+
+    private final StreamService streamService;
+    private final String serverUrl;
+
+    public StreamController(StreamService streamService, AppSettings appSettings) {
+        this.streamService = streamService;
+        this.serverUrl = appSettings.getRequiredParams().getServerUrl();
+    }
+
+    @PostMapping("/start")
+    public ResponseEntity<?> startStream(@RequestBody StreamRequest request) {
+        try {
+            if (request.getIngestProtocol() != null) {
+                return startPushStream(request);
+            }
+            if (request.getStreamUrl() == null || request.getStreamUrl().isBlank()) {
+                return ResponseEntity.badRequest().body("Stream URL or ingest protocol is required");
+            }
+
+            List<String> urls = streamService.startStream(
+                    request.getStreamUrl(),
+                    request.getStorageTypes(),
+                    request.getVideoQuality(),
+                    request.getWatermark(),
+                    request.getStartTime(), null,
+                    request.getIdleMinutes()
+            ).get(60, TimeUnit.SECONDS);
+
+            return ResponseEntity.ok().body(urls);
+        } catch (CapacityExceededException e) {
+            // 307 keeps method and body, so clients following redirects land on a node with room
+            if (e.getAlternativeNodeUrl() != null) {
+                return ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT)
+                        .header(HttpHeaders.LOCATION, e.getAlternativeNodeUrl() + "/api/stream/start")
+                        .body(e.getMessage());
+            }
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "30")
+                    .body(e.getMessage());
+        } catch (Exception e) {
+            log.error("Failed to start stream", e);
+            return ResponseEntity.internalServerError()
+                    .body("Failed to start stream: " + e.getMessage());
+        }
+
+    }
+
+    private ResponseEntity<?> startPushStream(StreamRequest request) {
+        if (request.getStartTime() != null) {
+            return ResponseEntity.badRequest().body("Push ingest streams can't be scheduled");
+        }
+        StreamContext context = streamService.startPushStream(
+                request.getIngestProtocol(),
+                request.getStorageTypes(),
+                request.getVideoQuality(),
+                request.getWatermark());
+
+        return ResponseEntity.ok().body(PushStreamResponse.builder()
+                .streamId(context.getId())
+                .ingestUrl(context.getIngestUrl())
+                .playlistUrls(context.getUrls(serverUrl))
+                .build());
+    }
+
+    @PostMapping("/stop/{streamId}")
+    public ResponseEntity<String> stopStream(@PathVariable String streamId) {
+        try {
+            streamService.stopStream(streamId);
+            //schedulerService.removeScheduledStream(streamId);
+            return ResponseEntity.ok("Stream stopped successfully");
+        } catch (Exception e) {
+            log.error("Failed to stop stream", e);
+            return ResponseEntity.internalServerError()
+                    .body("Failed to stop stream: " + e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,15 @@
+package com.streameast.segmenter.web.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class PushStreamResponse {
+    private final String streamId;
+    // Where the encoder pushes the stream to
+    private final String ingestUrl;
+    private final List<String> playlistUrls;
+}
@@ -0,0 +1,93 @@
+package com.streameast.segmenter.config;
+
+import com.streameast.segmenter.model.AdvertisementInfo;
+import com.streameast.segmenter.model.StreamContext;
+import com.streameast.segmenter.model.Watermark;
+import com.streameast.segmenter.model.enums.VideoQuality;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+// Size and ser/deser time of a live StreamContext in both Redis codecs. Not a unit test, run it with
+// the test classpath: java -cp target/classes:target/test-classes:<dependencies> ...StreamContextCodecBenchmark
+public class StreamContextCodecBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int MEASURED_ITERATIONS = 100_000;
+    private static final int SEGMENT_DURATION = 5;
+    private static final int MAX_SEGMENTS = 6;
+    // Keeps the JIT from dropping the measured calls
+    private static volatile long blackhole;
+
+    public static void main(String[] args) {
+        StreamContext context = createLiveContext();
+        System.out.printf(Locale.ROOT, "%-6s %8s %12s %12s%n", "codec", "bytes", "ser us/op", "deser us/op");
+        for (StreamContextRedisSerializer.Format format : StreamContextRedisSerializer.Format.values()) {
+            run(format, context);
+        }
+    }
+
+    private static void run(StreamContextRedisSerializer.Format format, StreamContext context) {
+        StreamContextRedisSerializer serializer = new StreamContextRedisSerializer(format);
+        byte[] bytes = serializer.serialize(context);
+
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += serializer.serialize(context).length;
+            sink += serializer.deserialize(bytes).getStreamSequences().size();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            sink += serializer.serialize(context).length;
+        }
+        long serializeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            sink += serializer.deserialize(bytes).getStreamSequences().size();
+        }
+        long deserializeNanos = System.nanoTime() - start;
+
+        blackhole = sink;
+        System.out.printf(Locale.ROOT, "%-6s %8d %12.2f %12.2f%n", format, bytes.length,
+                serializeNanos / 1000.0 / MEASURED_ITERATIONS, deserializeNanos / 1000.0 / MEASURED_ITERATIONS);
+    }
+
+    // A stream some hours in: a full playlist window for two backends, an encoder restart and a spliced ad
+    private static StreamContext createLiveContext() {
+        Watermark watermark = new Watermark();
+        watermark.setText("streameast");
+        String streamId = UUID.randomUUID().toString();
+        StreamContext context = new StreamContext(streamId, "srt://ingest.example.com:9000?mode=caller",
+                List.of("AWS", "GCP"), VideoQuality.MEDIUM, LocalDateTime.now().minusHours(3), watermark);
+        context.setProccessing(true);
+        context.setActive(true);
+        context.setPId(48213);
+        context.setSegmentCount(2160);
+
+        int first = 2160 - MAX_SEGMENTS;
+        for (int sequence = first; sequence < 2160; sequence++) {
+            context.addSequence(sequence, MAX_SEGMENTS);
+        }
+        context.addDiscontinuity(first + 2);
+        context.setDiscontinuitySequence(3);
+        context.setRemoteRetainedFrom(first - 20);
+        context.addAdvertisement(first + 4, new AdvertisementInfo("ad-3f9a1c0d2b7e4f5a8c6d1e2f3a4b5c6d-30-medium", 30,
+                List.of("segment_0.ts", "segment_1.ts", "segment_2.ts", "segment_3.ts", "segment_4.ts", "segment_5.ts"), true));
+
+        for (String storageType : context.getStorageTypes()) {
+            StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n#EXT-X-TARGETDURATION:5\n")
+                    .append("#EXT-X-MEDIA-SEQUENCE:").append(first).append("\n#EXT-X-DISCONTINUITY-SEQUENCE:3\n");
+            for (int sequence = first; sequence < 2160; sequence++) {
+                playlist.append("#EXTINF:").append(SEGMENT_DURATION).append(".0,\n")
+                        .append("https://segments-").append(storageType.toLowerCase()).append(".example.com/")
+                        .append(streamId).append("/segment_").append(sequence).append(".ts\n");
+            }
+            context.setPlaylistContent(storageType, playlist.toString());
+        }
+        return context;
+    }
+}